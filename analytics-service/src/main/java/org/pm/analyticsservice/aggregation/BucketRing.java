@@ -0,0 +1,85 @@
+package org.pm.analyticsservice.aggregation;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+// The last n buckets of one rollup, e.g. one counter or sketch per minute. Each slot holds the bucket of one
+// period; the first event of a later period that maps to the slot swaps in a fresh bucket with a
+// compare-and-set, so writers never block each other and the bucket itself only has to be safe for concurrent
+// updates.
+class BucketRing<T> {
+
+    private record Bucket<T>(long period, T value) {}
+
+    private final Rollup rollup;
+    private final Supplier<T> factory;
+    private final AtomicReferenceArray<Bucket<T>> slots;
+
+    BucketRing(Rollup rollup, int size, Supplier<T> factory) {
+        this.rollup = rollup;
+        this.factory = factory;
+        this.slots = new AtomicReferenceArray<>(size);
+    }
+
+    // The bucket the timestamp falls in, null when its period has already left the window
+    T bucketFor(long timestampMillis, long nowMillis){
+        long period = rollup.periodOf(timestampMillis);
+        if(period <= rollup.periodOf(nowMillis) - slots.length()){
+            return null;
+        }
+        int slot = slotOf(period);
+        T fresh = null;
+        while(true){
+            Bucket<T> bucket = slots.get(slot);
+            if(bucket != null && bucket.period() == period){
+                return bucket.value();
+            }
+            if(bucket != null && bucket.period() > period){
+                return null;
+            }
+            if(fresh == null){
+                fresh = factory.get();
+            }
+            if(slots.compareAndSet(slot, bucket, new Bucket<>(period, fresh))){
+                return fresh;
+            }
+        }
+    }
+
+    // The bucket of the period, null when nothing was recorded in it
+    T get(long period){
+        Bucket<T> bucket = slots.get(slotOf(period));
+        return bucket != null && bucket.period() == period ? bucket.value() : null;
+    }
+
+    // Periods that currently hold a bucket, for snapshots
+    long[] periods(){
+        long[] periods = new long[slots.length()];
+        int count = 0;
+        for(int slot = 0; slot < slots.length(); slot++){
+            Bucket<T> bucket = slots.get(slot);
+            if(bucket != null){
+                periods[count++] = bucket.period();
+            }
+        }
+        return Arrays.copyOf(periods, count);
+    }
+
+    // Puts back a bucket read from a snapshot, unless its period has left the window since
+    void restore(long period, T value, long nowMillis){
+        if(period > rollup.periodOf(nowMillis) - slots.length()){
+            slots.set(slotOf(period), new Bucket<>(period, value));
+        }
+    }
+
+    void clear(){
+        for(int slot = 0; slot < slots.length(); slot++){
+            slots.set(slot, null);
+        }
+    }
+
+    private int slotOf(long period){
+        return (int) Math.floorMod(period, (long) slots.length());
+    }
+}
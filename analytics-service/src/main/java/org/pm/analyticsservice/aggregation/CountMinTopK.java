@@ -0,0 +1,163 @@
+package org.pm.analyticsservice.aggregation;
+
+import org.pm.analyticsservice.snapshot.SnapshotFormatException;
+import org.pm.analyticsservice.snapshot.SnapshotReader;
+import org.pm.analyticsservice.snapshot.SnapshotWriter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Most frequent keys in fixed memory: a Count-Min sketch of depth x width counters estimates the count of any
+// key, and the `capacity` keys with the highest estimates so far are kept as candidates for the top-K.
+// Estimates never undercount; with probability 1 - e^-depth they overcount by at most e / width times the
+// total added (errorBound). Two sketches of the same shape merge by adding their counters and re-ranking the
+// union of their candidates.
+//
+// Counters are atomics, so adds don't lock. Only a key that is not a candidate yet and whose estimate beats
+// the smallest candidate takes the lock to replace it.
+class CountMinTopK {
+
+    private final int width;
+    private final int depth;
+    private final int capacity;
+    private final AtomicLongArray counters;
+    private final LongAdder total = new LongAdder();
+    private final Map<String, Boolean> candidates = new ConcurrentHashMap<>();
+    private volatile long candidateFloor;
+
+    CountMinTopK(int width, int depth, int capacity) {
+        this.width = width;
+        this.depth = depth;
+        this.capacity = capacity;
+        this.counters = new AtomicLongArray(width * depth);
+    }
+
+    void add(String key){
+        long hash = Hash64.hash(key);
+        long estimate = Long.MAX_VALUE;
+        for(int row = 0; row < depth; row++){
+            estimate = Math.min(estimate, counters.addAndGet(cell(row, hash), 1));
+        }
+        total.increment();
+        track(key, estimate);
+    }
+
+    void merge(CountMinTopK other){
+        if(other.width != width || other.depth != depth){
+            throw new IllegalArgumentException("Cannot merge Count-Min sketches of different shape");
+        }
+        for(int i = 0; i < counters.length(); i++){
+            long count = other.counters.get(i);
+            if(count > 0){
+                counters.addAndGet(i, count);
+            }
+        }
+        total.add(other.total.sum());
+        synchronized(candidates){
+            other.candidates.keySet().forEach(key -> candidates.put(key, Boolean.TRUE));
+            List<Map.Entry<String, Long>> ranked = top(candidates.size());
+            for(Map.Entry<String, Long> entry : ranked.subList(Math.min(capacity, ranked.size()), ranked.size())){
+                candidates.remove(entry.getKey());
+            }
+            candidateFloor = ranked.isEmpty() ? 0 : ranked.get(Math.min(capacity, ranked.size()) - 1).getValue();
+        }
+    }
+
+    long estimate(String key){
+        long hash = Hash64.hash(key);
+        long estimate = Long.MAX_VALUE;
+        for(int row = 0; row < depth; row++){
+            estimate = Math.min(estimate, counters.get(cell(row, hash)));
+        }
+        return estimate;
+    }
+
+    // Up to k candidates by estimated count, highest first
+    List<Map.Entry<String, Long>> top(int k){
+        List<Map.Entry<String, Long>> top = new ArrayList<>(candidates.size());
+        for(String key : candidates.keySet()){
+            top.add(Map.entry(key, estimate(key)));
+        }
+        top.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()));
+        return top.size() > k ? top.subList(0, k) : top;
+    }
+
+    long total(){
+        return total.sum();
+    }
+
+    long errorBound(){
+        return (long) Math.ceil(Math.E / width * total.sum());
+    }
+
+    double confidence(){
+        return 1 - Math.exp(-depth);
+    }
+
+    void writeTo(SnapshotWriter out){
+        out.putInt(width);
+        out.putInt(depth);
+        out.putLong(total.sum());
+        out.putLongs(counters);
+        List<String> keys = List.copyOf(candidates.keySet());
+        out.putInt(keys.size());
+        keys.forEach(out::putString);
+    }
+
+    static CountMinTopK readFrom(SnapshotReader in, int width, int depth, int capacity){
+        int storedWidth = in.getInt();
+        int storedDepth = in.getInt();
+        if(storedWidth != width || storedDepth != depth){
+            throw new SnapshotFormatException("Count-Min sketch is " + storedWidth + "x" + storedDepth + ", configured " + width + "x" + depth);
+        }
+        CountMinTopK sketch = new CountMinTopK(width, depth, capacity);
+        sketch.total.add(in.getLong());
+        in.getLongs(sketch.counters);
+        int candidates = in.getInt();
+        for(int i = 0; i < candidates; i++){
+            sketch.track(in.getString(), 0);
+        }
+        return sketch;
+    }
+
+    private void track(String key, long estimate){
+        if(candidates.containsKey(key) || (candidates.size() >= capacity && estimate <= candidateFloor)){
+            return;
+        }
+        synchronized(candidates){
+            if(candidates.containsKey(key)){
+                return;
+            }
+            candidates.put(key, Boolean.TRUE);
+            String smallest = null;
+            long smallestEstimate = Long.MAX_VALUE;
+            for(String candidate : candidates.keySet()){
+                long candidateEstimate = estimate(candidate);
+                if(candidateEstimate < smallestEstimate){
+                    smallest = candidate;
+                    smallestEstimate = candidateEstimate;
+                }
+            }
+            if(candidates.size() > capacity){
+                candidates.remove(smallest);
+                smallestEstimate = Long.MAX_VALUE;
+                for(String candidate : candidates.keySet()){
+                    smallestEstimate = Math.min(smallestEstimate, estimate(candidate));
+                }
+            }
+            candidateFloor = smallestEstimate;
+        }
+    }
+
+    // Row i uses h1 + i * h2 over the two halves of the hash (Kirsch-Mitzenmacher)
+    private int cell(int row, long hash){
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        return row * width + Math.floorMod(h1 + row * h2, width);
+    }
+}
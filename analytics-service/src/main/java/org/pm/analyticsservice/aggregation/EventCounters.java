@@ -0,0 +1,173 @@
+package org.pm.analyticsservice.aggregation;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.pm.analyticsservice.dto.EventCountsResponseDto;
+import org.pm.analyticsservice.exception.InvalidQueryException;
+import org.pm.analyticsservice.snapshot.SnapshotReader;
+import org.pm.analyticsservice.snapshot.SnapshotWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Event counts by event_type, kept per minute, hour and day for the last analytics.aggregation.*-buckets
+// periods, plus a running total. Updated on the consume path without locks (see BucketRing; the counts are
+// LongAdders, striped per thread under contention, so the partition workers don't fight over one cache line)
+// and read by the /analytics endpoints, which only sum the buckets asked for.
+//
+// Events are counted at their record timestamp, so a replay after a restart lands in the same buckets. Events
+// older than a rollup's window are not counted in that rollup (analytics.aggregation.late).
+@Component
+public class EventCounters {
+
+    // Beyond this many distinct event types, further new types are counted as OTHER
+    private static final String OTHER = "OTHER";
+    private static final String UNKNOWN = "UNKNOWN";
+
+    private final Map<Rollup, Integer> bucketCounts = new EnumMap<>(Rollup.class);
+    private final int maxEventTypes;
+    private final Map<String, TypeCounters> byType = new ConcurrentHashMap<>();
+    private final Counter late;
+
+    public EventCounters(
+            @Value("${analytics.aggregation.minute-buckets:120}") int minuteBuckets,
+            @Value("${analytics.aggregation.hour-buckets:48}") int hourBuckets,
+            @Value("${analytics.aggregation.day-buckets:90}") int dayBuckets,
+            @Value("${analytics.aggregation.max-event-types:100}") int maxEventTypes,
+            MeterRegistry meterRegistry) {
+        bucketCounts.put(Rollup.MINUTE, minuteBuckets);
+        bucketCounts.put(Rollup.HOUR, hourBuckets);
+        bucketCounts.put(Rollup.DAY, dayBuckets);
+        this.maxEventTypes = maxEventTypes;
+        this.late = Counter.builder("analytics.aggregation.late")
+                .description("Bucket updates dropped because the event was older than the rollup's window")
+                .register(meterRegistry);
+    }
+
+    public void record(String eventType, long timestampMillis){
+        long now = System.currentTimeMillis();
+        TypeCounters counters = countersFor(eventType == null || eventType.isEmpty() ? UNKNOWN : eventType);
+        counters.total.increment();
+        for(BucketRing<LongAdder> ring : counters.rings.values()){
+            LongAdder bucket = ring.bucketFor(timestampMillis, now);
+            if(bucket != null){
+                bucket.increment();
+            }else{
+                late.increment();
+            }
+        }
+    }
+
+    // The last `last` buckets of the rollup up to and including the current one, for every event type
+    // or only the given one
+    public EventCountsResponseDto counts(Rollup rollup, int last, String eventType){
+        int size = bucketCounts.get(rollup);
+        if(last < 1 || last > size){
+            throw new InvalidQueryException("last must be between 1 and " + size + " for " + rollup.name().toLowerCase());
+        }
+        long current = rollup.periodOf(System.currentTimeMillis());
+        long first = current - last + 1;
+
+        Map<String, long[]> counts = new TreeMap<>();
+        Map<String, Long> totals = new TreeMap<>();
+        for(Map.Entry<String, TypeCounters> entry : byType.entrySet()){
+            if(eventType != null && !eventType.equals(entry.getKey())){
+                continue;
+            }
+            BucketRing<LongAdder> ring = entry.getValue().rings.get(rollup);
+            long[] series = new long[last];
+            long total = 0;
+            for(int i = 0; i < last; i++){
+                LongAdder bucket = ring.get(first + i);
+                series[i] = bucket != null ? bucket.sum() : 0;
+                total += series[i];
+            }
+            counts.put(entry.getKey(), series);
+            totals.put(entry.getKey(), total);
+        }
+        return new EventCountsResponseDto(
+                rollup.name().toLowerCase(),
+                Instant.ofEpochMilli(first * rollup.periodMillis()),
+                Instant.ofEpochMilli((current + 1) * rollup.periodMillis()),
+                counts,
+                totals);
+    }
+
+    // Events per type in the analytics state: restored from the snapshot on restart, so they count from the first
+    // replay of the patient topic, not from the start of this instance
+    public Map<String, Long> totals(){
+        Map<String, Long> totals = new TreeMap<>();
+        byType.forEach((type, counters) -> totals.put(type, counters.total.sum()));
+        return totals;
+    }
+
+    // Called with consumption paused, see AnalyticsState
+    public void writeTo(SnapshotWriter out){
+        List<Map.Entry<String, TypeCounters>> types = List.copyOf(byType.entrySet());
+        out.putInt(types.size());
+        for(Map.Entry<String, TypeCounters> entry : types){
+            out.putString(entry.getKey());
+            out.putLong(entry.getValue().total.sum());
+            for(Rollup rollup : Rollup.values()){
+                BucketRing<LongAdder> ring = entry.getValue().rings.get(rollup);
+                long[] periods = ring.periods();
+                out.putInt(periods.length);
+                for(long period : periods){
+                    out.putLong(period);
+                    out.putLong(ring.get(period).sum());
+                }
+            }
+        }
+    }
+
+    public void readFrom(SnapshotReader in){
+        long now = System.currentTimeMillis();
+        int types = in.getInt();
+        for(int i = 0; i < types; i++){
+            TypeCounters counters = byType.computeIfAbsent(in.getString(), type -> new TypeCounters());
+            counters.total.add(in.getLong());
+            for(Rollup rollup : Rollup.values()){
+                BucketRing<LongAdder> ring = counters.rings.get(rollup);
+                int buckets = in.getInt();
+                for(int j = 0; j < buckets; j++){
+                    long period = in.getLong();
+                    LongAdder count = new LongAdder();
+                    count.add(in.getLong());
+                    ring.restore(period, count, now);
+                }
+            }
+        }
+    }
+
+    public void clear(){
+        byType.clear();
+    }
+
+    private TypeCounters countersFor(String eventType){
+        TypeCounters counters = byType.get(eventType);
+        if(counters != null){
+            return counters;
+        }
+        if(byType.size() >= maxEventTypes && !eventType.equals(OTHER)){
+            return countersFor(OTHER);
+        }
+        return byType.computeIfAbsent(eventType, type -> new TypeCounters());
+    }
+
+    private class TypeCounters {
+
+        private final LongAdder total = new LongAdder();
+        private final Map<Rollup, BucketRing<LongAdder>> rings = new EnumMap<>(Rollup.class);
+
+        TypeCounters() {
+            bucketCounts.forEach((rollup, size) -> rings.put(rollup, new BucketRing<>(rollup, size, LongAdder::new)));
+        }
+    }
+}
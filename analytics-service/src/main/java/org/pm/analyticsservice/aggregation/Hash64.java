@@ -0,0 +1,37 @@
+package org.pm.analyticsservice.aggregation;
+
+// 64-bit string hash for the sketches: FNV-1a over the chars, then murmur3's finalizer so every output bit
+// depends on every input bit (HyperLogLog reads the top bits, Count-Min both halves).
+public final class Hash64 {
+
+    private Hash64() {
+    }
+
+    public static long hash(CharSequence value){
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < value.length(); i++){
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    // UTF-8 bytes of a string, the same hash as for the string itself when it is ASCII
+    public static long hash(byte[] value, int offset, int length){
+        long h = 0xcbf29ce484222325L;
+        for(int i = offset; i < offset + length; i++){
+            h ^= value[i] & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h){
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
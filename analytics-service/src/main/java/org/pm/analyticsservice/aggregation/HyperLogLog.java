@@ -0,0 +1,117 @@
+package org.pm.analyticsservice.aggregation;
+
+import org.pm.analyticsservice.snapshot.SnapshotFormatException;
+import org.pm.analyticsservice.snapshot.SnapshotReader;
+import org.pm.analyticsservice.snapshot.SnapshotWriter;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Distinct count estimate in 2^precision one-byte registers (16 KB at precision 14), whatever the number of
+// values added. Adding the same value again changes nothing, so redelivered events are not counted twice.
+// Two sketches of the same precision merge by taking the larger register, which gives the sketch of the union.
+//
+// The relative standard error is 1.04 / sqrt(2^precision), 0.8% at precision 14. Registers are packed four
+// to an int and raised with compare-and-set, so concurrent adds don't lock.
+class HyperLogLog {
+
+    private final int precision;
+    private final int registerCount;
+    private final AtomicIntegerArray registers;
+
+    HyperLogLog(int precision) {
+        if(precision < 4 || precision > 18){
+            throw new IllegalArgumentException("HyperLogLog precision must be between 4 and 18");
+        }
+        this.precision = precision;
+        this.registerCount = 1 << precision;
+        this.registers = new AtomicIntegerArray(registerCount / 4);
+    }
+
+    void add(long hash){
+        int index = (int) (hash >>> (64 - precision));
+        // Leading zeros of the remaining bits plus one, the guard bit caps it at 64 - precision + 1
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        raise(index, rank);
+    }
+
+    void merge(HyperLogLog other){
+        if(other.precision != precision){
+            throw new IllegalArgumentException("Cannot merge HyperLogLog sketches of different precision");
+        }
+        // A word (four registers) at a time, most words of a sparse sketch are still zero
+        for(int word = 0; word < registers.length(); word++){
+            int theirs = other.registers.get(word);
+            while(theirs != 0){
+                int current = registers.get(word);
+                int merged = 0;
+                for(int shift = 0; shift < 32; shift += 8){
+                    merged |= Math.max((current >>> shift) & 0xFF, (theirs >>> shift) & 0xFF) << shift;
+                }
+                if(merged == current || registers.compareAndSet(word, current, merged)){
+                    break;
+                }
+            }
+        }
+    }
+
+    long estimate(){
+        double sum = 0;
+        int zeros = 0;
+        for(int word = 0; word < registers.length(); word++){
+            int value = registers.get(word);
+            if(value == 0){
+                sum += 4;
+                zeros += 4;
+                continue;
+            }
+            for(int shift = 0; shift < 32; shift += 8){
+                int rank = (value >>> shift) & 0xFF;
+                sum += Math.scalb(1.0, -rank);
+                if(rank == 0){
+                    zeros++;
+                }
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / registerCount);
+        double estimate = alpha * registerCount * registerCount / sum;
+        // Small cardinalities: linear counting over the empty registers is more accurate
+        if(estimate <= 2.5 * registerCount && zeros > 0){
+            estimate = registerCount * Math.log((double) registerCount / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    double relativeStandardError(){
+        return 1.04 / Math.sqrt(registerCount);
+    }
+
+    void writeTo(SnapshotWriter out){
+        out.putInt(precision);
+        out.putInts(registers);
+    }
+
+    static HyperLogLog readFrom(SnapshotReader in, int precision){
+        int stored = in.getInt();
+        if(stored != precision){
+            throw new SnapshotFormatException("HyperLogLog precision is " + stored + ", configured " + precision);
+        }
+        HyperLogLog sketch = new HyperLogLog(precision);
+        in.getInts(sketch.registers);
+        return sketch;
+    }
+
+    private void raise(int index, int rank){
+        int word = index >>> 2;
+        int shift = (index & 3) * 8;
+        while(true){
+            int current = registers.get(word);
+            if(((current >>> shift) & 0xFF) >= rank){
+                return;
+            }
+            int next = (current & ~(0xFF << shift)) | (rank << shift);
+            if(registers.compareAndSet(word, current, next)){
+                return;
+            }
+        }
+    }
+}
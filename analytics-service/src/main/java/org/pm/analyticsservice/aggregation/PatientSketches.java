@@ -0,0 +1,202 @@
+package org.pm.analyticsservice.aggregation;
+
+import org.pm.analyticsservice.dto.DistinctCountResponseDto;
+import org.pm.analyticsservice.event.PatientEventView;
+import org.pm.analyticsservice.dto.EmailDomainCountDto;
+import org.pm.analyticsservice.dto.TopEmailDomainsResponseDto;
+import org.pm.analyticsservice.exception.InvalidQueryException;
+import org.pm.analyticsservice.snapshot.SnapshotReader;
+import org.pm.analyticsservice.snapshot.SnapshotWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Fixed-memory sketches per UTC day for the last analytics.sketch.days days:
+//   - distinct patient ids per event type (HyperLogLog, 16 KB per day and type at precision 14)
+//   - email domain counts with the top domains (Count-Min, width x depth longs per day), over the events of
+//     analytics.sketch.domain-event-types, by default only registrations so updates don't count a patient again
+// A query for the last n days merges the daily sketches into a new one, so any window up to the retention can
+// be answered, and every answer carries its error bound.
+@Component
+public class PatientSketches {
+
+    private static final String OTHER = "OTHER";
+
+    private final int days;
+    private final int precision;
+    private final int width;
+    private final int depth;
+    private final int topKCapacity;
+    private final Set<String> domainEventTypes;
+    private final int maxEventTypes;
+    private final Map<String, BucketRing<HyperLogLog>> distinctByType = new ConcurrentHashMap<>();
+    private final BucketRing<CountMinTopK> emailDomains;
+
+    public PatientSketches(
+            @Value("${analytics.sketch.days:35}") int days,
+            @Value("${analytics.sketch.hll-precision:14}") int precision,
+            @Value("${analytics.sketch.cms-width:2048}") int width,
+            @Value("${analytics.sketch.cms-depth:4}") int depth,
+            @Value("${analytics.sketch.top-k-capacity:50}") int topKCapacity,
+            @Value("${analytics.sketch.domain-event-types:PATIENT_CREATED}") Set<String> domainEventTypes,
+            @Value("${analytics.sketch.max-event-types:10}") int maxEventTypes) {
+        this.days = days;
+        this.precision = precision;
+        this.width = width;
+        this.depth = depth;
+        this.topKCapacity = topKCapacity;
+        this.domainEventTypes = domainEventTypes;
+        this.maxEventTypes = maxEventTypes;
+        this.emailDomains = new BucketRing<>(Rollup.DAY, days, () -> new CountMinTopK(width, depth, topKCapacity));
+        // Fails at startup rather than on the first event when the precision is out of range
+        new HyperLogLog(precision);
+    }
+
+    public void record(PatientEventView patientEvent, long timestampMillis){
+        long now = System.currentTimeMillis();
+        String eventType = patientEvent.getEventType();
+        if(patientEvent.hasPatientId()){
+            HyperLogLog distinct = distinctRing(eventType).bucketFor(timestampMillis, now);
+            if(distinct != null){
+                distinct.add(patientEvent.patientIdHash());
+            }
+        }
+
+        if(domainEventTypes.contains(eventType)){
+            String domain = patientEvent.emailDomain();
+            CountMinTopK domains = domain != null ? emailDomains.bucketFor(timestampMillis, now) : null;
+            if(domains != null){
+                domains.add(domain);
+            }
+        }
+    }
+
+    // Distinct patients over the last `lastDays` days including today, with the given event type or any
+    public DistinctCountResponseDto distinctPatients(int lastDays, String eventType){
+        long today = checkWindow(lastDays);
+        HyperLogLog merged = new HyperLogLog(precision);
+        for(Map.Entry<String, BucketRing<HyperLogLog>> entry : distinctByType.entrySet()){
+            if(eventType != null && !eventType.equals(entry.getKey())){
+                continue;
+            }
+            for(long day = today - lastDays + 1; day <= today; day++){
+                HyperLogLog sketch = entry.getValue().get(day);
+                if(sketch != null){
+                    merged.merge(sketch);
+                }
+            }
+        }
+        long estimate = merged.estimate();
+        double error = merged.relativeStandardError();
+        long margin = Math.round(1.96 * error * estimate);
+        return new DistinctCountResponseDto(
+                windowStart(today, lastDays),
+                windowEnd(today),
+                eventType,
+                estimate,
+                error,
+                Math.max(0, estimate - margin),
+                estimate + margin);
+    }
+
+    public TopEmailDomainsResponseDto topEmailDomains(int lastDays, int k){
+        long today = checkWindow(lastDays);
+        if(k < 1 || k > topKCapacity){
+            throw new InvalidQueryException("k must be between 1 and " + topKCapacity);
+        }
+        CountMinTopK merged = new CountMinTopK(width, depth, topKCapacity);
+        for(long day = today - lastDays + 1; day <= today; day++){
+            CountMinTopK sketch = emailDomains.get(day);
+            if(sketch != null){
+                merged.merge(sketch);
+            }
+        }
+        List<EmailDomainCountDto> domains = new ArrayList<>();
+        for(Map.Entry<String, Long> entry : merged.top(k)){
+            domains.add(new EmailDomainCountDto(entry.getKey(), entry.getValue()));
+        }
+        return new TopEmailDomainsResponseDto(
+                windowStart(today, lastDays),
+                windowEnd(today),
+                merged.total(),
+                domains,
+                merged.errorBound(),
+                merged.confidence());
+    }
+
+    // Called with consumption paused, see AnalyticsState
+    public void writeTo(SnapshotWriter out){
+        List<Map.Entry<String, BucketRing<HyperLogLog>>> types = List.copyOf(distinctByType.entrySet());
+        out.putInt(types.size());
+        for(Map.Entry<String, BucketRing<HyperLogLog>> entry : types){
+            out.putString(entry.getKey());
+            long[] periods = entry.getValue().periods();
+            out.putInt(periods.length);
+            for(long period : periods){
+                out.putLong(period);
+                entry.getValue().get(period).writeTo(out);
+            }
+        }
+        long[] periods = emailDomains.periods();
+        out.putInt(periods.length);
+        for(long period : periods){
+            out.putLong(period);
+            emailDomains.get(period).writeTo(out);
+        }
+    }
+
+    public void readFrom(SnapshotReader in){
+        long now = System.currentTimeMillis();
+        int types = in.getInt();
+        for(int i = 0; i < types; i++){
+            BucketRing<HyperLogLog> ring = distinctRing(in.getString());
+            int buckets = in.getInt();
+            for(int j = 0; j < buckets; j++){
+                long period = in.getLong();
+                ring.restore(period, HyperLogLog.readFrom(in, precision), now);
+            }
+        }
+        int buckets = in.getInt();
+        for(int j = 0; j < buckets; j++){
+            long period = in.getLong();
+            emailDomains.restore(period, CountMinTopK.readFrom(in, width, depth, topKCapacity), now);
+        }
+    }
+
+    public void clear(){
+        distinctByType.clear();
+        emailDomains.clear();
+    }
+
+    private BucketRing<HyperLogLog> distinctRing(String eventType){
+        BucketRing<HyperLogLog> ring = distinctByType.get(eventType);
+        if(ring != null){
+            return ring;
+        }
+        if(distinctByType.size() >= maxEventTypes && !eventType.equals(OTHER)){
+            return distinctRing(OTHER);
+        }
+        return distinctByType.computeIfAbsent(eventType, type -> new BucketRing<>(Rollup.DAY, days, () -> new HyperLogLog(precision)));
+    }
+
+    private long checkWindow(int lastDays){
+        if(lastDays < 1 || lastDays > days){
+            throw new InvalidQueryException("days must be between 1 and " + days);
+        }
+        return Rollup.DAY.periodOf(System.currentTimeMillis());
+    }
+
+    private static Instant windowStart(long today, int lastDays){
+        return Instant.ofEpochMilli((today - lastDays + 1) * Rollup.DAY.periodMillis());
+    }
+
+    private static Instant windowEnd(long today){
+        return Instant.ofEpochMilli((today + 1) * Rollup.DAY.periodMillis());
+    }
+}
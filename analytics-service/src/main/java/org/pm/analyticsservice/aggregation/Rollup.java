@@ -0,0 +1,25 @@
+package org.pm.analyticsservice.aggregation;
+
+import java.time.Duration;
+
+// Bucket sizes the event counts are kept at. Buckets are aligned to the epoch, so hour and day buckets
+// start on the UTC hour and day.
+public enum Rollup {
+    MINUTE(Duration.ofMinutes(1)),
+    HOUR(Duration.ofHours(1)),
+    DAY(Duration.ofDays(1));
+
+    private final long periodMillis;
+
+    Rollup(Duration period) {
+        this.periodMillis = period.toMillis();
+    }
+
+    public long periodMillis() {
+        return periodMillis;
+    }
+
+    public long periodOf(long timestampMillis) {
+        return Math.floorDiv(timestampMillis, periodMillis);
+    }
+}
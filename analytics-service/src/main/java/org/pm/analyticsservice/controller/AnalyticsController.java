@@ -0,0 +1,82 @@
+package org.pm.analyticsservice.controller;
+
+import org.pm.analyticsservice.aggregation.EventCounters;
+import org.pm.analyticsservice.aggregation.PatientSketches;
+import org.pm.analyticsservice.aggregation.Rollup;
+import org.pm.analyticsservice.dto.DistinctCountResponseDto;
+import org.pm.analyticsservice.dto.EventCountsResponseDto;
+import org.pm.analyticsservice.dto.TopEmailDomainsResponseDto;
+import org.pm.analyticsservice.exception.InvalidQueryException;
+import org.pm.analyticsservice.snapshot.AnalyticsState;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/analytics")
+public class AnalyticsController {
+
+    private final EventCounters eventCounters;
+    private final PatientSketches patientSketches;
+    private final AnalyticsState analyticsState;
+
+    public AnalyticsController(EventCounters eventCounters, PatientSketches patientSketches, AnalyticsState analyticsState) {
+        this.eventCounters = eventCounters;
+        this.patientSketches = patientSketches;
+        this.analyticsState = analyticsState;
+    }
+
+    // Patient events per minute, hour or day for each event type, e.g. /analytics/events?rollup=hour&last=24
+    @GetMapping("/events")
+    public ResponseEntity<EventCountsResponseDto> getEventCounts(
+            @RequestParam(defaultValue = "minute") String rollup,
+            @RequestParam(defaultValue = "60") int last) {
+        analyticsState.checkReady();
+        return ResponseEntity.ok(eventCounters.counts(parseRollup(rollup), last, null));
+    }
+
+    @GetMapping("/events/{eventType}")
+    public ResponseEntity<EventCountsResponseDto> getEventCountsForType(
+            @PathVariable String eventType,
+            @RequestParam(defaultValue = "minute") String rollup,
+            @RequestParam(defaultValue = "60") int last) {
+        analyticsState.checkReady();
+        return ResponseEntity.ok(eventCounters.counts(parseRollup(rollup), last, eventType));
+    }
+
+    @GetMapping("/events/totals")
+    public ResponseEntity<Map<String, Long>> getEventTotals() {
+        analyticsState.checkReady();
+        return ResponseEntity.ok(eventCounters.totals());
+    }
+
+    // Approximate number of distinct patients, e.g. registered this week: ?days=7&eventType=PATIENT_CREATED
+    @GetMapping("/patients/distinct")
+    public ResponseEntity<DistinctCountResponseDto> getDistinctPatients(
+            @RequestParam(defaultValue = "7") int days,
+            @RequestParam(required = false) String eventType) {
+        analyticsState.checkReady();
+        return ResponseEntity.ok(patientSketches.distinctPatients(days, eventType));
+    }
+
+    @GetMapping("/email-domains/top")
+    public ResponseEntity<TopEmailDomainsResponseDto> getTopEmailDomains(
+            @RequestParam(defaultValue = "7") int days,
+            @RequestParam(defaultValue = "10") int k) {
+        analyticsState.checkReady();
+        return ResponseEntity.ok(patientSketches.topEmailDomains(days, k));
+    }
+
+    private static Rollup parseRollup(String rollup){
+        try{
+            return Rollup.valueOf(rollup.toUpperCase());
+        }catch (IllegalArgumentException e){
+            throw new InvalidQueryException("rollup must be one of minute, hour, day");
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.pm.analyticsservice.dto;
+
+import java.time.Instant;
+
+public class DistinctCountResponseDto {
+
+    // Start of the oldest day in the window and end of today (UTC)
+    private Instant from;
+
+    private Instant to;
+
+    // Null when patients with any event type are counted
+    private String eventType;
+
+    private long estimate;
+
+    private double relativeStandardError;
+
+    // 95% interval around the estimate
+    private long lower;
+
+    private long upper;
+
+    public DistinctCountResponseDto(Instant from, Instant to, String eventType, long estimate, double relativeStandardError, long lower, long upper) {
+        this.from = from;
+        this.to = to;
+        this.eventType = eventType;
+        this.estimate = estimate;
+        this.relativeStandardError = relativeStandardError;
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    public Instant getFrom() {
+        return from;
+    }
+
+    public void setFrom(Instant from) {
+        this.from = from;
+    }
+
+    public Instant getTo() {
+        return to;
+    }
+
+    public void setTo(Instant to) {
+        this.to = to;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(String eventType) {
+        this.eventType = eventType;
+    }
+
+    public long getEstimate() {
+        return estimate;
+    }
+
+    public void setEstimate(long estimate) {
+        this.estimate = estimate;
+    }
+
+    public double getRelativeStandardError() {
+        return relativeStandardError;
+    }
+
+    public void setRelativeStandardError(double relativeStandardError) {
+        this.relativeStandardError = relativeStandardError;
+    }
+
+    public long getLower() {
+        return lower;
+    }
+
+    public void setLower(long lower) {
+        this.lower = lower;
+    }
+
+    public long getUpper() {
+        return upper;
+    }
+
+    public void setUpper(long upper) {
+        this.upper = upper;
+    }
+}
@@ -0,0 +1,29 @@
+package org.pm.analyticsservice.dto;
+
+public class EmailDomainCountDto {
+
+    private String domain;
+
+    private long count;
+
+    public EmailDomainCountDto(String domain, long count) {
+        this.domain = domain;
+        this.count = count;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+}
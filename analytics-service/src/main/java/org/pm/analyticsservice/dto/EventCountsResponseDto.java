@@ -0,0 +1,67 @@
+package org.pm.analyticsservice.dto;
+
+import java.time.Instant;
+import java.util.Map;
+
+public class EventCountsResponseDto {
+
+    private String rollup;
+
+    // Start of the oldest bucket and end of the newest (current) one
+    private Instant from;
+
+    private Instant to;
+
+    // Events per bucket for each event type, oldest bucket first
+    private Map<String, long[]> counts;
+
+    private Map<String, Long> totals;
+
+    public EventCountsResponseDto(String rollup, Instant from, Instant to, Map<String, long[]> counts, Map<String, Long> totals) {
+        this.rollup = rollup;
+        this.from = from;
+        this.to = to;
+        this.counts = counts;
+        this.totals = totals;
+    }
+
+    public String getRollup() {
+        return rollup;
+    }
+
+    public void setRollup(String rollup) {
+        this.rollup = rollup;
+    }
+
+    public Instant getFrom() {
+        return from;
+    }
+
+    public void setFrom(Instant from) {
+        this.from = from;
+    }
+
+    public Instant getTo() {
+        return to;
+    }
+
+    public void setTo(Instant to) {
+        this.to = to;
+    }
+
+    public Map<String, long[]> getCounts() {
+        return counts;
+    }
+
+    public void setCounts(Map<String, long[]> counts) {
+        this.counts = counts;
+    }
+
+    public Map<String, Long> getTotals() {
+        return totals;
+    }
+
+    public void setTotals(Map<String, Long> totals) {
+        this.totals = totals;
+    }
+}
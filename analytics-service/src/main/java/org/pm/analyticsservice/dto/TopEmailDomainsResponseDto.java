@@ -0,0 +1,79 @@
+package org.pm.analyticsservice.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+public class TopEmailDomainsResponseDto {
+
+    private Instant from;
+
+    private Instant to;
+
+    // Events with an email domain in the window
+    private long events;
+
+    // Highest estimated count first
+    private List<EmailDomainCountDto> domains;
+
+    // Counts may be too high by up to errorBound, never too low, with the given confidence
+    private long errorBound;
+
+    private double confidence;
+
+    public TopEmailDomainsResponseDto(Instant from, Instant to, long events, List<EmailDomainCountDto> domains, long errorBound, double confidence) {
+        this.from = from;
+        this.to = to;
+        this.events = events;
+        this.domains = domains;
+        this.errorBound = errorBound;
+        this.confidence = confidence;
+    }
+
+    public Instant getFrom() {
+        return from;
+    }
+
+    public void setFrom(Instant from) {
+        this.from = from;
+    }
+
+    public Instant getTo() {
+        return to;
+    }
+
+    public void setTo(Instant to) {
+        this.to = to;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public void setEvents(long events) {
+        this.events = events;
+    }
+
+    public List<EmailDomainCountDto> getDomains() {
+        return domains;
+    }
+
+    public void setDomains(List<EmailDomainCountDto> domains) {
+        this.domains = domains;
+    }
+
+    public long getErrorBound() {
+        return errorBound;
+    }
+
+    public void setErrorBound(long errorBound) {
+        this.errorBound = errorBound;
+    }
+
+    public double getConfidence() {
+        return confidence;
+    }
+
+    public void setConfidence(double confidence) {
+        this.confidence = confidence;
+    }
+}
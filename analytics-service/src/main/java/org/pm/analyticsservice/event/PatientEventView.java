@@ -0,0 +1,247 @@
+package org.pm.analyticsservice.event;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import org.pm.analyticsservice.aggregation.Hash64;
+import patient.events.PatientEvent;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+// A PatientEvent read in place from the record's bytes. wrap() only walks the wire format and remembers where
+// each field's bytes are; a String is built only for the getters that are called. The consume path needs the
+// event type (the same few values, handed out from a cache), a hash of the patient id (computed over the bytes)
+// and, for registrations, the email domain, so most records are applied without allocating at all.
+//
+// Accepts exactly what PatientEvent.parseFrom accepts: fields by the generated field numbers, the last
+// occurrence of a field wins, unknown fields of any wire type are skipped, and malformed input or invalid
+// UTF-8 in a string field is an InvalidProtocolBufferException. A view is reused for many records, one
+// thread at a time.
+public class PatientEventView {
+
+    private static final int MAX_CACHED_EVENT_TYPES = 64;
+
+    // Copy-on-write, event types are few and almost never new
+    private record EventTypes(String[] names, byte[][] bytes) {}
+
+    private static volatile EventTypes eventTypes = new EventTypes(new String[0], new byte[0][]);
+
+    private byte[] data;
+    private int position;
+    private int patientIdOffset, patientIdLength;
+    private int nameOffset, nameLength;
+    private int emailOffset, emailLength;
+    private int eventTypeOffset, eventTypeLength;
+
+    public PatientEventView wrap(byte[] data) throws InvalidProtocolBufferException {
+        this.data = data;
+        patientIdOffset = nameOffset = emailOffset = eventTypeOffset = 0;
+        patientIdLength = nameLength = emailLength = eventTypeLength = 0;
+        position = 0;
+        while(position < data.length){
+            long tag = readVarint();
+            int fieldNumber = WireFormat.getTagFieldNumber((int) tag);
+            int wireType = WireFormat.getTagWireType((int) tag);
+            if(fieldNumber == 0){
+                throw new InvalidProtocolBufferException("Protocol message contained an invalid tag (zero).");
+            }
+            if(wireType != WireFormat.WIRETYPE_LENGTH_DELIMITED){
+                skip((int) tag, wireType);
+                continue;
+            }
+            long length = readVarint();
+            if(length < 0 || length > data.length - position){
+                throw truncated();
+            }
+            int offset = position;
+            position += (int) length;
+            // Every occurrence of a string field is checked, also one that a later occurrence replaces, as
+            // parseFrom does
+            switch(fieldNumber){
+                case PatientEvent.PATIENTID_FIELD_NUMBER -> {
+                    patientIdOffset = checkUtf8(offset, length);
+                    patientIdLength = (int) length;
+                }
+                case PatientEvent.NAME_FIELD_NUMBER -> {
+                    nameOffset = checkUtf8(offset, length);
+                    nameLength = (int) length;
+                }
+                case PatientEvent.EMAIL_FIELD_NUMBER -> {
+                    emailOffset = checkUtf8(offset, length);
+                    emailLength = (int) length;
+                }
+                case PatientEvent.EVENT_TYPE_FIELD_NUMBER -> {
+                    eventTypeOffset = checkUtf8(offset, length);
+                    eventTypeLength = (int) length;
+                }
+                default -> { }
+            }
+        }
+        return this;
+    }
+
+    public String getPatientId(){
+        return string(patientIdOffset, patientIdLength);
+    }
+
+    public String getName(){
+        return string(nameOffset, nameLength);
+    }
+
+    public String getEmail(){
+        return string(emailOffset, emailLength);
+    }
+
+    public boolean hasPatientId(){
+        return patientIdLength > 0;
+    }
+
+    // Same value as Hash64.hash(getPatientId()) for ASCII ids such as UUIDs
+    public long patientIdHash(){
+        return Hash64.hash(data, patientIdOffset, patientIdLength);
+    }
+
+    public String getEventType(){
+        EventTypes known = eventTypes;
+        for(int i = 0; i < known.bytes().length; i++){
+            byte[] bytes = known.bytes()[i];
+            if(Arrays.equals(bytes, 0, bytes.length, data, eventTypeOffset, eventTypeOffset + eventTypeLength)){
+                return known.names()[i];
+            }
+        }
+        String eventType = string(eventTypeOffset, eventTypeLength);
+        cacheEventType(eventType);
+        return eventType;
+    }
+
+    // Lower-cased part after the last @, null when there is none. The @ byte never occurs inside a multi-byte
+    // UTF-8 sequence, so the bytes can be searched directly.
+    public String emailDomain(){
+        for(int i = emailOffset + emailLength - 1; i >= emailOffset; i--){
+            if(data[i] == '@'){
+                int length = emailOffset + emailLength - i - 1;
+                return length > 0 ? string(i + 1, length).toLowerCase(Locale.ROOT) : null;
+            }
+        }
+        return null;
+    }
+
+    private String string(int offset, int length){
+        return length == 0 ? "" : new String(data, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private int checkUtf8(int offset, long length) throws InvalidProtocolBufferException {
+        if(!isValidUtf8(offset, (int) length)){
+            throw new InvalidProtocolBufferException("Protocol message had invalid UTF-8.");
+        }
+        return offset;
+    }
+
+    // Well-formed UTF-8 as protobuf checks it for proto3 strings: no overlong forms, surrogates or code points
+    // above U+10FFFF
+    private boolean isValidUtf8(int offset, int length){
+        int i = offset;
+        int end = offset + length;
+        while(i < end && data[i] >= 0){
+            i++;
+        }
+        while(i < end){
+            int b = data[i++] & 0xFF;
+            if(b < 0x80){
+                continue;
+            }
+            int continuation;
+            int min;
+            if(b >= 0xC2 && b <= 0xDF){
+                continuation = 1;
+                min = 0x80;
+            }else if(b >= 0xE0 && b <= 0xEF){
+                continuation = 2;
+                min = 0x800;
+            }else if(b >= 0xF0 && b <= 0xF4){
+                continuation = 3;
+                min = 0x10000;
+            }else{
+                return false;
+            }
+            if(end - i < continuation){
+                return false;
+            }
+            int codePoint = b & (0x3F >> continuation);
+            for(int j = 0; j < continuation; j++){
+                int next = data[i++] & 0xFF;
+                if((next & 0xC0) != 0x80){
+                    return false;
+                }
+                codePoint = (codePoint << 6) | (next & 0x3F);
+            }
+            if(codePoint < min || codePoint > 0x10FFFF || (codePoint >= 0xD800 && codePoint <= 0xDFFF)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skip(int tag, int wireType) throws InvalidProtocolBufferException {
+        switch(wireType){
+            case WireFormat.WIRETYPE_VARINT -> readVarint();
+            case WireFormat.WIRETYPE_FIXED64 -> advance(8);
+            case WireFormat.WIRETYPE_FIXED32 -> advance(4);
+            default -> {
+                // Groups (or an invalid wire type): rare enough to let protobuf deal with them
+                CodedInputStream input = CodedInputStream.newInstance(data, position, data.length - position);
+                try{
+                    if(!input.skipField(tag)){
+                        throw new InvalidProtocolBufferException("Protocol message end-group tag did not match expected tag.");
+                    }
+                }catch (InvalidProtocolBufferException e){
+                    throw e;
+                }catch (IOException e){
+                    throw new InvalidProtocolBufferException(e);
+                }
+                position += input.getTotalBytesRead();
+            }
+        }
+    }
+
+    private long readVarint() throws InvalidProtocolBufferException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            if(position >= data.length){
+                throw truncated();
+            }
+            byte b = data[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0){
+                return value;
+            }
+        }
+        throw new InvalidProtocolBufferException("CodedInputStream encountered a malformed varint.");
+    }
+
+    private void advance(int bytes) throws InvalidProtocolBufferException {
+        if(bytes > data.length - position){
+            throw truncated();
+        }
+        position += bytes;
+    }
+
+    private static InvalidProtocolBufferException truncated(){
+        return new InvalidProtocolBufferException("While parsing a protocol message, the input ended unexpectedly in the middle of a field.");
+    }
+
+    private static synchronized void cacheEventType(String eventType){
+        EventTypes known = eventTypes;
+        if(known.names().length >= MAX_CACHED_EVENT_TYPES || Arrays.asList(known.names()).contains(eventType)){
+            return;
+        }
+        String[] names = Arrays.copyOf(known.names(), known.names().length + 1);
+        byte[][] bytes = Arrays.copyOf(known.bytes(), known.bytes().length + 1);
+        names[names.length - 1] = eventType;
+        bytes[bytes.length - 1] = eventType.getBytes(StandardCharsets.UTF_8);
+        eventTypes = new EventTypes(names, bytes);
+    }
+}
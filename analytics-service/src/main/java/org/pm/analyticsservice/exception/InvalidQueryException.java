@@ -0,0 +1,7 @@
+package org.pm.analyticsservice.exception;
+
+public class InvalidQueryException extends RuntimeException {
+    public InvalidQueryException(String message) {
+        super(message);
+    }
+}
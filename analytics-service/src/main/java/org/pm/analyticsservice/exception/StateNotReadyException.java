@@ -0,0 +1,7 @@
+package org.pm.analyticsservice.exception;
+
+public class StateNotReadyException extends RuntimeException {
+    public StateNotReadyException(String message) {
+        super(message);
+    }
+}
@@ -1,29 +1,259 @@
 package org.pm.analyticsservice.kafka;
 
 import com.google.protobuf.InvalidProtocolBufferException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.pm.analyticsservice.event.PatientEventView;
+import org.pm.analyticsservice.service.PatientEventProcessor;
+import org.pm.analyticsservice.snapshot.AnalyticsState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.ConsumerSeekAware;
 import org.springframework.stereotype.Service;
-import patient.events.PatientEvent;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Consumes the patient topic in batches of up to max-poll-records. The records of a batch are split by
+// partition and each partition is decoded and applied on its own worker, in offset order, so events for one
+// patient (keyed by patient id) stay in order while partitions are caught up in parallel. The listener only
+// returns once every partition of the batch has been applied, and the container commits the batch's
+// offsets after that (ack-mode batch). A failed batch is retried from its first record; each partition
+// records its applied offset in the analytics state as soon as it is done, so records already applied before
+// the failure are skipped on the retry.
+//
+// Partitions start where the restored analytics state ends (see AnalyticsState), or at the beginning when it
+// has nothing from them, so the aggregates always include each record exactly once. The state is marked ready
+// once every assigned partition has been read to its end.
+//
+// analytics.events.processed counts applied records (analytics.events.processed.rate is per second over
+// the time since the previous read), analytics.consumer.lag is the number of records behind the end of
+// each partition after the last batch.
 @Service
-public class KafkaConsumer {
+public class KafkaConsumer implements ConsumerSeekAware {
 
     private static final Logger log = LoggerFactory.getLogger(KafkaConsumer.class);
 
-    @KafkaListener(topics = "patient", groupId = "analytics-service")
-    public void consumeEvent(byte[] event){
+    private final PatientEventProcessor patientEventProcessor;
+    private final AnalyticsState analyticsState;
+    private final ExecutorService workers;
+    private final MeterRegistry meterRegistry;
+
+    private final Counter processed;
+    private final Counter invalid;
+    private final Timer batchTimer;
+    private final Map<TopicPartition, AtomicLong> lagByPartition = new ConcurrentHashMap<>();
+    private final Set<TopicPartition> assigned = ConcurrentHashMap.newKeySet();
+    private final AtomicLong replayed = new AtomicLong();
+
+    private long rateSampleCount;
+    private long rateSampleNanos = System.nanoTime();
+    private double ratePerSecond;
+
+    public KafkaConsumer(
+            PatientEventProcessor patientEventProcessor,
+            AnalyticsState analyticsState,
+            @Value("${analytics.consumer.workers:0}") int workers,
+            MeterRegistry meterRegistry) {
+        int poolSize = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.patientEventProcessor = patientEventProcessor;
+        this.analyticsState = analyticsState;
+        this.workers = Executors.newFixedThreadPool(poolSize, Thread.ofPlatform().name("partition-worker-", 0).daemon().factory());
+        this.meterRegistry = meterRegistry;
+
+        this.processed = Counter.builder("analytics.events.processed")
+                .description("Patient events applied")
+                .register(meterRegistry);
+        this.invalid = Counter.builder("analytics.events.invalid")
+                .description("Records that could not be decoded and were skipped")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("analytics.consumer.batch")
+                .description("Time to decode and apply one polled batch")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("analytics.events.processed.rate", this, KafkaConsumer::ratePerSecond)
+                .description("Patient events applied per second")
+                .baseUnit("events/s")
+                .register(meterRegistry);
+    }
+
+    @KafkaListener(topics = "patient", groupId = "analytics-service", batch = "true",
+            concurrency = "${analytics.consumer.concurrency:1}")
+    public void consumeEvents(List<ConsumerRecord<String, byte[]>> records, Consumer<?, ?> consumer){
+        long start = System.nanoTime();
+        Map<TopicPartition, List<ConsumerRecord<String, byte[]>>> byPartition = new LinkedHashMap<>();
+        for(ConsumerRecord<String, byte[]> record : records){
+            byPartition.computeIfAbsent(new TopicPartition(record.topic(), record.partition()), tp -> new ArrayList<>())
+                    .add(record);
+        }
+
+        int applied = applyPartitions(byPartition);
+
+        processed.increment(applied);
+        batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        byPartition.keySet().forEach(partition -> recordLag(consumer, partition));
+        if(!analyticsState.isReady()){
+            replayed.addAndGet(records.size());
+            consumer.assignment().forEach(partition -> recordLag(consumer, partition));
+            checkCaughtUp();
+        }
+    }
+
+    private int applyPartitions(Map<TopicPartition, List<ConsumerRecord<String, byte[]>>> byPartition){
+        if(byPartition.size() == 1){
+            Map.Entry<TopicPartition, List<ConsumerRecord<String, byte[]>>> only = byPartition.entrySet().iterator().next();
+            return apply(only.getKey(), only.getValue());
+        }
+        List<CompletableFuture<Integer>> partitions = new ArrayList<>(byPartition.size());
+        byPartition.forEach((partition, partitionRecords) ->
+                partitions.add(CompletableFuture.supplyAsync(() -> apply(partition, partitionRecords), workers)));
         try{
-            PatientEvent patientEvent = PatientEvent.parseFrom(event);
-            //..perform any business logic related to analytics service
-            log.info("Received Patient Event: [PatientId= {}, PatientName= {}, PatientEmail: {}]",
-                    patientEvent.getPatientId(),
-                    patientEvent.getName(),
-                    patientEvent.getEmail()
-            );
-        }catch (InvalidProtocolBufferException e){
-            log.error("Error deserializing event {}", e.getMessage());
+            // Waits for every partition, also when one has failed, so none is still applying on redelivery
+            CompletableFuture.allOf(partitions.toArray(CompletableFuture[]::new)).join();
+        }catch (CompletionException e){
+            // Nothing is committed, the container hands the same batch to the error handler. The partitions have
+            // recorded how far they got and skip those records when it is redelivered
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
         }
+        int applied = 0;
+        for(CompletableFuture<Integer> partition : partitions){
+            applied += partition.join();
+        }
+        return applied;
+    }
+
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback){
+        for(TopicPartition partition : assignments.keySet()){
+            Long offset = analyticsState.appliedOffset(partition);
+            if(offset != null){
+                callback.seek(partition.topic(), partition.partition(), offset);
+            }else{
+                callback.seekToBeginning(partition.topic(), partition.partition());
+            }
+        }
+        assigned.addAll(assignments.keySet());
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions){
+        assigned.removeAll(partitions);
+    }
+
+    // No records for spring.kafka.listener.idle-event-interval, every partition of that consumer is at its end
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event){
+        if(!analyticsState.isReady()){
+            event.getTopicPartitions().forEach(partition ->
+                    lagByPartition.computeIfAbsent(partition, this::registerLag).set(0));
+            checkCaughtUp();
+        }
+    }
+
+    private void checkCaughtUp(){
+        if(assigned.isEmpty()){
+            return;
+        }
+        for(TopicPartition partition : assigned){
+            AtomicLong lag = lagByPartition.get(partition);
+            if(lag == null || lag.get() > 0){
+                return;
+            }
+        }
+        analyticsState.markReady(replayed.get());
+    }
+
+    private int apply(TopicPartition partition, List<ConsumerRecord<String, byte[]>> records){
+        return analyticsState.applying(() -> applyRecords(partition, records));
+    }
+
+    // Records below the partition's applied offset are already in the aggregates, from a batch that failed on
+    // another partition (or on a later record of this one) and is redelivered
+    private int applyRecords(TopicPartition partition, List<ConsumerRecord<String, byte[]>> records){
+        Long appliedOffset = analyticsState.appliedOffset(partition);
+        long nextOffset = -1;
+        int applied = 0;
+        PatientEventView patientEvent = new PatientEventView();
+        try{
+            for(ConsumerRecord<String, byte[]> record : records){
+                if(appliedOffset != null && record.offset() < appliedOffset){
+                    continue;
+                }
+                try{
+                    patientEvent.wrap(record.value());
+                    // CreateTime, when the patient service wrote the event; -1 only for records without a timestamp
+                    long timestamp = record.timestamp() >= 0 ? record.timestamp() : System.currentTimeMillis();
+                    patientEventProcessor.process(patientEvent, timestamp);
+                    applied++;
+                }catch (InvalidProtocolBufferException e){
+                    invalid.increment();
+                    log.error("Error deserializing event at {}-{}@{}: {}", record.topic(), record.partition(), record.offset(), e.getMessage());
+                }
+                nextOffset = record.offset() + 1;
+            }
+        }finally {
+            if(nextOffset >= 0){
+                analyticsState.applied(partition, nextOffset);
+            }
+        }
+        return applied;
+    }
+
+    // The consumer's own view of the partition end, no extra request to the broker
+    private void recordLag(Consumer<?, ?> consumer, TopicPartition partition){
+        OptionalLong lag = consumer.currentLag(partition);
+        if(lag.isEmpty()){
+            return;
+        }
+        lagByPartition.computeIfAbsent(partition, this::registerLag).set(lag.getAsLong());
+    }
+
+    private AtomicLong registerLag(TopicPartition partition){
+        AtomicLong value = new AtomicLong();
+        Gauge.builder("analytics.consumer.lag", value, AtomicLong::get)
+                .description("Records behind the end of the partition after the last applied batch")
+                .tag("topic", partition.topic())
+                .tag("partition", String.valueOf(partition.partition()))
+                .register(meterRegistry);
+        return value;
+    }
+
+    private synchronized double ratePerSecond(){
+        long now = System.nanoTime();
+        long count = (long) processed.count();
+        long elapsed = now - rateSampleNanos;
+        if(elapsed >= TimeUnit.SECONDS.toNanos(1)){
+            ratePerSecond = (count - rateSampleCount) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            rateSampleCount = count;
+            rateSampleNanos = now;
+        }
+        return ratePerSecond;
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        workers.shutdown();
     }
 }
@@ -0,0 +1,37 @@
+package org.pm.analyticsservice.service;
+
+import org.pm.analyticsservice.aggregation.EventCounters;
+import org.pm.analyticsservice.aggregation.PatientSketches;
+import org.pm.analyticsservice.event.PatientEventView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+// Applies decoded patient events to the analytics state. Called from several consumer workers at once,
+// each with the events of one partition in offset order.
+@Service
+public class PatientEventProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(PatientEventProcessor.class);
+
+    private final EventCounters eventCounters;
+    private final PatientSketches patientSketches;
+
+    public PatientEventProcessor(EventCounters eventCounters, PatientSketches patientSketches) {
+        this.eventCounters = eventCounters;
+        this.patientSketches = patientSketches;
+    }
+
+    public void process(PatientEventView patientEvent, long timestampMillis){
+        // The fields are only decoded into Strings when this is logged
+        if(log.isDebugEnabled()){
+            log.debug("Received Patient Event: [PatientId= {}, PatientName= {}, PatientEmail: {}]",
+                    patientEvent.getPatientId(),
+                    patientEvent.getName(),
+                    patientEvent.getEmail()
+            );
+        }
+        eventCounters.record(patientEvent.getEventType(), timestampMillis);
+        patientSketches.record(patientEvent, timestampMillis);
+    }
+}
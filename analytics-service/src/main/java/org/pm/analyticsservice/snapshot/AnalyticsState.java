@@ -0,0 +1,234 @@
+package org.pm.analyticsservice.snapshot;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.common.TopicPartition;
+import org.pm.analyticsservice.aggregation.EventCounters;
+import org.pm.analyticsservice.aggregation.PatientSketches;
+import org.pm.analyticsservice.exception.StateNotReadyException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntSupplier;
+import java.util.zip.CRC32C;
+
+// Ties the in-memory aggregates to the offsets of the patient topic they include, so a restart can restore
+// them and only replay what came after.
+//
+// Records are applied under the read lock, and each partition records the next offset to read as soon as its
+// records are in; a snapshot takes the write lock, so it always sees exactly the records the offsets say. Every
+// analytics.snapshot.interval-ms (and on shutdown) the aggregates and offsets are written into a
+// memory-mapped temporary file that replaces the previous snapshot once flushed. At startup the snapshot is
+// mapped and read back before the listener starts, and the consumer seeks to its offsets (or to the
+// beginning of partitions it has none for). A snapshot that fails its checksum or does not fit the current
+// sketch settings is discarded and the topic replayed from the beginning.
+//
+// The /analytics endpoints answer with 503 until the consumer has caught up with the topic.
+@Component
+public class AnalyticsState {
+
+    private static final Logger log = LoggerFactory.getLogger(AnalyticsState.class);
+
+    private static final int MAGIC = 0x504d4153;
+    private static final int VERSION = 1;
+    // magic, version, body length, body CRC32C, written at
+    private static final int HEADER_BYTES = 32;
+
+    private final EventCounters eventCounters;
+    private final PatientSketches patientSketches;
+    private final boolean snapshotsEnabled;
+    private final Path path;
+    private final Timer snapshotTimer;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<TopicPartition, Long> appliedOffsets = new ConcurrentHashMap<>();
+
+    private volatile boolean dirty;
+    private volatile boolean ready;
+    private volatile long readyMillis = -1;
+
+    public AnalyticsState(
+            EventCounters eventCounters,
+            PatientSketches patientSketches,
+            @Value("${analytics.snapshot.enabled:true}") boolean snapshotsEnabled,
+            @Value("${analytics.snapshot.path:data/analytics.snapshot}") String path,
+            MeterRegistry meterRegistry) {
+        this.eventCounters = eventCounters;
+        this.patientSketches = patientSketches;
+        this.snapshotsEnabled = snapshotsEnabled;
+        this.path = Path.of(path).toAbsolutePath();
+        this.snapshotTimer = Timer.builder("analytics.snapshot.write")
+                .description("Time to write and replace the snapshot of the analytics state")
+                .register(meterRegistry);
+        TimeGauge.builder("analytics.startup.ready", this, TimeUnit.MILLISECONDS, state -> state.readyMillis)
+                .description("Time from JVM start until the consumer had caught up with the patient topic, -1 before that")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void restore(){
+        if(!snapshotsEnabled || !Files.exists(path)){
+            log.info("No analytics snapshot, the patient topic is replayed from the beginning");
+            return;
+        }
+        long start = System.nanoTime();
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer body = verify(mapped);
+            SnapshotReader in = new SnapshotReader(body);
+            int partitions = in.getInt();
+            for(int i = 0; i < partitions; i++){
+                appliedOffsets.put(new TopicPartition(in.getString(), in.getInt()), in.getLong());
+            }
+            eventCounters.readFrom(in);
+            patientSketches.readFrom(in);
+            log.info("Restored analytics snapshot of {} bytes in {} ms, resuming at {}",
+                    channel.size(), (System.nanoTime() - start) / 1_000_000, appliedOffsets);
+        }catch (IOException | SnapshotFormatException e){
+            log.warn("Discarding analytics snapshot {}, the patient topic is replayed from the beginning: {}", path, e.getMessage());
+            appliedOffsets.clear();
+            eventCounters.clear();
+            patientSketches.clear();
+        }
+    }
+
+    // Runs work that applies records, a snapshot waits for it to finish
+    public int applying(IntSupplier work){
+        lock.readLock().lock();
+        try{
+            return work.getAsInt();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Records where the aggregates now end for the partition (the next offset to read), called from applying
+    // work once the partition's records are in
+    public void applied(TopicPartition partition, long nextOffset){
+        appliedOffsets.put(partition, nextOffset);
+        dirty = true;
+    }
+
+    // Where the aggregates end for the partition, null when they include nothing from it
+    public Long appliedOffset(TopicPartition partition){
+        return appliedOffsets.get(partition);
+    }
+
+    @Scheduled(fixedDelayString = "${analytics.snapshot.interval-ms:30000}")
+    public void snapshot(){
+        if(snapshotsEnabled && dirty){
+            write();
+        }
+    }
+
+    // The listener containers are stopped by now, so this snapshot includes everything consumed
+    @PreDestroy
+    public void snapshotOnShutdown(){
+        snapshot();
+    }
+
+    public void markReady(long replayedRecords){
+        if(ready){
+            return;
+        }
+        readyMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        ready = true;
+        log.info("Caught up with the patient topic {} ms after start, {} records replayed", readyMillis, replayedRecords);
+    }
+
+    public boolean isReady(){
+        return ready;
+    }
+
+    public void checkReady(){
+        if(!ready){
+            throw new StateNotReadyException("Analytics are still catching up with the patient topic");
+        }
+    }
+
+    private synchronized void write(){
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try{
+            Files.createDirectories(path.getParent());
+            try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                SnapshotWriter out = new SnapshotWriter(channel, HEADER_BYTES);
+                List<Map.Entry<TopicPartition, Long>> offsets = List.copyOf(appliedOffsets.entrySet());
+                out.putInt(offsets.size());
+                for(Map.Entry<TopicPartition, Long> offset : offsets){
+                    out.putString(offset.getKey().topic());
+                    out.putInt(offset.getKey().partition());
+                    out.putLong(offset.getValue());
+                }
+                eventCounters.writeTo(out);
+                patientSketches.writeTo(out);
+                dirty = false;
+                long end = out.finish();
+
+                CRC32C crc = new CRC32C();
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, end - HEADER_BYTES));
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putLong(end - HEADER_BYTES).putInt((int) crc.getValue())
+                        .putLong(System.currentTimeMillis());
+                header.force();
+            }
+        }catch (IOException | RuntimeException e){
+            dirty = true;
+            log.warn("Could not write analytics snapshot {}: {}", path, e.getMessage());
+            return;
+        }finally {
+            lock.writeLock().unlock();
+        }
+        try{
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }catch (IOException e){
+            dirty = true;
+            log.warn("Could not replace analytics snapshot {}: {}", path, e.getMessage());
+            return;
+        }
+        snapshotTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    static ByteBuffer verify(MappedByteBuffer mapped){
+        if(mapped.remaining() < HEADER_BYTES || mapped.getInt() != MAGIC){
+            throw new SnapshotFormatException("Not an analytics snapshot");
+        }
+        int version = mapped.getInt();
+        if(version != VERSION){
+            throw new SnapshotFormatException("Snapshot version " + version + ", expected " + VERSION);
+        }
+        long length = mapped.getLong();
+        int checksum = mapped.getInt();
+        if(length != mapped.capacity() - HEADER_BYTES){
+            throw new SnapshotFormatException("Snapshot is " + mapped.capacity() + " bytes, header says " + (length + HEADER_BYTES));
+        }
+        ByteBuffer body = mapped.slice(HEADER_BYTES, (int) length);
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        if((int) crc.getValue() != checksum){
+            throw new SnapshotFormatException("Snapshot checksum mismatch");
+        }
+        return body;
+    }
+}
@@ -0,0 +1,7 @@
+package org.pm.analyticsservice.snapshot;
+
+public class SnapshotFormatException extends RuntimeException {
+    public SnapshotFormatException(String message) {
+        super(message);
+    }
+}
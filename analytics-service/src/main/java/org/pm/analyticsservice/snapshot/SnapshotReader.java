@@ -0,0 +1,69 @@
+package org.pm.analyticsservice.snapshot;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Reads a snapshot body from the mapped file. Anything that does not match what the reader expects (a
+// truncated body, an array of the wrong length, a sketch of another shape) is a SnapshotFormatException, and
+// the whole snapshot is discarded.
+public class SnapshotReader {
+
+    private final ByteBuffer buffer;
+
+    SnapshotReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public int getInt(){
+        try{
+            return buffer.getInt();
+        }catch (BufferUnderflowException e){
+            throw new SnapshotFormatException("Snapshot ends early");
+        }
+    }
+
+    public long getLong(){
+        try{
+            return buffer.getLong();
+        }catch (BufferUnderflowException e){
+            throw new SnapshotFormatException("Snapshot ends early");
+        }
+    }
+
+    public String getString(){
+        byte[] bytes = new byte[length(1)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public void getInts(AtomicIntegerArray into){
+        int length = length(Integer.BYTES);
+        if(length != into.length()){
+            throw new SnapshotFormatException("Expected " + into.length() + " ints, snapshot has " + length);
+        }
+        for(int i = 0; i < length; i++){
+            into.set(i, buffer.getInt());
+        }
+    }
+
+    public void getLongs(AtomicLongArray into){
+        int length = length(Long.BYTES);
+        if(length != into.length()){
+            throw new SnapshotFormatException("Expected " + into.length() + " longs, snapshot has " + length);
+        }
+        for(int i = 0; i < length; i++){
+            into.set(i, buffer.getLong());
+        }
+    }
+
+    private int length(int elementBytes){
+        int length = getInt();
+        if(length < 0 || (long) length * elementBytes > buffer.remaining()){
+            throw new SnapshotFormatException("Snapshot ends early");
+        }
+        return length;
+    }
+}
@@ -0,0 +1,90 @@
+package org.pm.analyticsservice.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Writes a snapshot body straight into the file through memory-mapped chunks, mapping the next chunk when the
+// current one is full, so the state is never staged in a heap buffer. The file is truncated to what was
+// written when the body is finished.
+public class SnapshotWriter {
+
+    private static final int CHUNK_BYTES = 4 << 20;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long bufferStart;
+
+    SnapshotWriter(FileChannel channel, long start) {
+        this.channel = channel;
+        this.bufferStart = start;
+        this.buffer = map(start, CHUNK_BYTES);
+    }
+
+    public void putInt(int value){
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    public void putLong(long value){
+        ensure(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    public void putString(String value){
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(Integer.BYTES + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    public void putInts(AtomicIntegerArray values){
+        ensure(Integer.BYTES + values.length() * Integer.BYTES);
+        buffer.putInt(values.length());
+        for(int i = 0; i < values.length(); i++){
+            buffer.putInt(values.get(i));
+        }
+    }
+
+    public void putLongs(AtomicLongArray values){
+        ensure(Integer.BYTES + values.length() * Long.BYTES);
+        buffer.putInt(values.length());
+        for(int i = 0; i < values.length(); i++){
+            buffer.putLong(values.get(i));
+        }
+    }
+
+    long position(){
+        return bufferStart + buffer.position();
+    }
+
+    // Flushes the mapped pages and cuts off the unused rest of the last chunk, returns the end of the body
+    long finish() throws IOException {
+        long end = position();
+        buffer.force();
+        channel.truncate(end);
+        return end;
+    }
+
+    private void ensure(int bytes){
+        if(buffer.remaining() >= bytes){
+            return;
+        }
+        long position = position();
+        buffer.force();
+        buffer = map(position, Math.max(CHUNK_BYTES, bytes));
+        bufferStart = position;
+    }
+
+    private MappedByteBuffer map(long position, int size){
+        try{
+            return channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+}
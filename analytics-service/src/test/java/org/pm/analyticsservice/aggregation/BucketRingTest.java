@@ -0,0 +1,92 @@
+package org.pm.analyticsservice.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class BucketRingTest {
+
+    private static final long MINUTE = Rollup.MINUTE.periodMillis();
+    // Minute 1000 since the epoch, the ring holds minutes 996 to 1000
+    private static final long NOW = 1000 * MINUTE + 30_000;
+
+    @Test
+    void eventsOfTheSamePeriodShareABucket() {
+        BucketRing<LongAdder> ring = new BucketRing<>(Rollup.MINUTE, 5, LongAdder::new);
+
+        LongAdder bucket = ring.bucketFor(1000 * MINUTE, NOW);
+        assertSame(bucket, ring.bucketFor(1000 * MINUTE + 59_999, NOW));
+        assertNotSame(bucket, ring.bucketFor(999 * MINUTE, NOW));
+        assertSame(bucket, ring.get(1000));
+        assertNull(ring.get(998));
+    }
+
+    @Test
+    void aLaterPeriodRollsTheReusedSlotOver() {
+        BucketRing<LongAdder> ring = new BucketRing<>(Rollup.MINUTE, 5, LongAdder::new);
+        ring.bucketFor(996 * MINUTE, NOW).add(7);
+
+        // Minute 1001 maps to the slot of minute 996
+        long later = NOW + MINUTE;
+        LongAdder fresh = ring.bucketFor(1001 * MINUTE, later);
+
+        assertEquals(0, fresh.sum());
+        assertSame(fresh, ring.get(1001));
+        assertNull(ring.get(996));
+        assertArrayEquals(new long[]{1001}, ring.periods());
+    }
+
+    @Test
+    void eventsOlderThanTheWindowOrTheSlotAreDropped() {
+        BucketRing<LongAdder> ring = new BucketRing<>(Rollup.MINUTE, 5, LongAdder::new);
+
+        // Minute 995 has left the window of minutes 996 to 1000
+        assertNull(ring.bucketFor(995 * MINUTE, NOW));
+        assertEquals(0, ring.periods().length);
+
+        // A late event whose slot was already taken over by a later period
+        long later = NOW + 4 * MINUTE;
+        ring.bucketFor(1001 * MINUTE, later).increment();
+        assertNull(ring.bucketFor(996 * MINUTE, NOW));
+        assertEquals(1, ring.get(1001).sum());
+    }
+
+    @Test
+    void concurrentRolloverKeepsEveryIncrement() throws InterruptedException {
+        BucketRing<LongAdder> ring = new BucketRing<>(Rollup.MINUTE, 5, LongAdder::new);
+        ring.bucketFor(996 * MINUTE, NOW).add(1_000);
+        int threads = 8;
+        int increments = 10_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for(int i = 0; i < threads; i++){
+            writers.add(Thread.ofPlatform().start(() -> {
+                try{
+                    start.await();
+                }catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                // All race to replace minute 996 with minute 1001
+                for(int j = 0; j < increments; j++){
+                    ring.bucketFor(1001 * MINUTE, NOW + MINUTE).increment();
+                }
+            }));
+        }
+        start.countDown();
+        for(Thread writer : writers){
+            writer.join();
+        }
+
+        assertEquals((long) threads * increments, ring.get(1001).sum());
+    }
+}
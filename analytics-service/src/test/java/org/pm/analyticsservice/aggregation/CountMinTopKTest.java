@@ -0,0 +1,126 @@
+package org.pm.analyticsservice.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountMinTopKTest {
+
+    private static final int WIDTH = 2048;
+    private static final int DEPTH = 4;
+
+    @Test
+    void errorBoundAndConfidenceFollowTheShape() {
+        CountMinTopK sketch = new CountMinTopK(WIDTH, DEPTH, 50);
+        for(int i = 0; i < 10_000; i++){
+            sketch.add("domain" + i % 100 + ".com");
+        }
+
+        assertEquals(10_000, sketch.total());
+        assertEquals((long) Math.ceil(Math.E / WIDTH * 10_000), sketch.errorBound());
+        assertEquals(1 - Math.exp(-DEPTH), sketch.confidence(), 1e-12);
+    }
+
+    @Test
+    void neverUndercountsAndRarelyExceedsTheErrorBound() {
+        CountMinTopK sketch = new CountMinTopK(WIDTH, DEPTH, 50);
+        Map<String, Long> exact = addZipf(sketch, new SplittableRandom(7), 10_000, 200_000);
+
+        int overBound = 0;
+        for(Map.Entry<String, Long> entry : exact.entrySet()){
+            long estimate = sketch.estimate(entry.getKey());
+            assertTrue(estimate >= entry.getValue(), entry.getKey() + " undercounted");
+            if(estimate - entry.getValue() > sketch.errorBound()){
+                overBound++;
+            }
+        }
+        // Each key stays within the bound with probability confidence()
+        assertTrue(overBound <= (1 - sketch.confidence()) * exact.size(), overBound + " keys over the bound");
+    }
+
+    @Test
+    void topMatchesTheExactRankingOfAZipfStream() {
+        CountMinTopK sketch = new CountMinTopK(WIDTH, DEPTH, 50);
+        Map<String, Long> exact = addZipf(sketch, new SplittableRandom(11), 10_000, 200_000);
+
+        assertEquals(exactTop(exact, 10), sketch.top(10).stream().map(Map.Entry::getKey).toList());
+    }
+
+    @Test
+    void heavierKeyDisplacesTheSmallestCandidate() {
+        CountMinTopK sketch = new CountMinTopK(WIDTH, DEPTH, 3);
+        add(sketch, "a.com", 5);
+        add(sketch, "b.com", 3);
+        add(sketch, "c.com", 1);
+        add(sketch, "d.com", 4);
+
+        List<String> top = sketch.top(10).stream().map(Map.Entry::getKey).toList();
+        assertEquals(List.of("a.com", "d.com", "b.com"), top);
+
+        // A key that does not beat the smallest candidate stays out
+        add(sketch, "e.com", 2);
+        assertFalse(sketch.top(10).stream().anyMatch(entry -> entry.getKey().equals("e.com")));
+        assertEquals(3, sketch.top(10).size());
+    }
+
+    @Test
+    void mergeAddsCountsAndRanksTheUnionOfCandidates() {
+        CountMinTopK monday = new CountMinTopK(WIDTH, DEPTH, 2);
+        add(monday, "a.com", 10);
+        add(monday, "b.com", 6);
+        add(monday, "c.com", 5);
+        CountMinTopK tuesday = new CountMinTopK(WIDTH, DEPTH, 2);
+        add(tuesday, "c.com", 8);
+        add(tuesday, "d.com", 7);
+
+        CountMinTopK week = new CountMinTopK(WIDTH, DEPTH, 2);
+        week.merge(monday);
+        week.merge(tuesday);
+
+        assertEquals(36, week.total());
+        assertEquals(List.of(Map.entry("c.com", 13L), Map.entry("a.com", 10L)), week.top(5));
+        assertThrows(IllegalArgumentException.class, () -> week.merge(new CountMinTopK(WIDTH / 2, DEPTH, 2)));
+    }
+
+    private static void add(CountMinTopK sketch, String key, int times) {
+        for(int i = 0; i < times; i++){
+            sketch.add(key);
+        }
+    }
+
+    // Zipf(s = 1.1) over `keys` domains, returns the exact counts
+    private static Map<String, Long> addZipf(CountMinTopK sketch, SplittableRandom random, int keys, int events) {
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for(int i = 0; i < keys; i++){
+            sum += 1 / Math.pow(i + 1, 1.1);
+            cumulative[i] = sum;
+        }
+        Map<String, Long> exact = new HashMap<>();
+        for(int i = 0; i < events; i++){
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            String key = "domain" + (index < 0 ? -index - 1 : index) + ".com";
+            sketch.add(key);
+            exact.merge(key, 1L, Long::sum);
+        }
+        return exact;
+    }
+
+    private static List<String> exactTop(Map<String, Long> exact, int k) {
+        return exact.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()))
+                .limit(k)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+}
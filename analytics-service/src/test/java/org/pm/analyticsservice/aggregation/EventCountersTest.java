@@ -0,0 +1,151 @@
+package org.pm.analyticsservice.aggregation;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pm.analyticsservice.dto.EventCountsResponseDto;
+import org.pm.analyticsservice.exception.InvalidQueryException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Counts are read at day granularity, so the current period only changes if a test runs across midnight UTC
+class EventCountersTest {
+
+    private static final long DAY = Rollup.DAY.periodMillis();
+
+    private MeterRegistry meterRegistry;
+    private EventCounters eventCounters;
+    private long today;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        eventCounters = new EventCounters(120, 48, 90, 3, meterRegistry);
+        today = Rollup.DAY.periodOf(System.currentTimeMillis()) * DAY;
+    }
+
+    @Test
+    void countsTheLastBucketsOldestFirst() {
+        record("PATIENT_CREATED", today, 3);
+        record("PATIENT_CREATED", today - 2 * DAY, 2);
+        record("PATIENT_UPDATED", today - DAY, 1);
+
+        EventCountsResponseDto counts = eventCounters.counts(Rollup.DAY, 3, null);
+
+        assertEquals("day", counts.getRollup());
+        assertEquals(today - 2 * DAY, counts.getFrom().toEpochMilli());
+        assertEquals(today + DAY, counts.getTo().toEpochMilli());
+        assertArrayEquals(new long[]{2, 0, 3}, counts.getCounts().get("PATIENT_CREATED"));
+        assertArrayEquals(new long[]{0, 1, 0}, counts.getCounts().get("PATIENT_UPDATED"));
+        assertEquals(Map.of("PATIENT_CREATED", 5L, "PATIENT_UPDATED", 1L), counts.getTotals());
+
+        // Only the current day
+        assertArrayEquals(new long[]{3}, eventCounters.counts(Rollup.DAY, 1, null).getCounts().get("PATIENT_CREATED"));
+    }
+
+    @Test
+    void filtersByEventType() {
+        record("PATIENT_CREATED", today, 3);
+        record("PATIENT_UPDATED", today, 1);
+
+        EventCountsResponseDto counts = eventCounters.counts(Rollup.DAY, 7, "PATIENT_UPDATED");
+
+        assertEquals(Set.of("PATIENT_UPDATED"), counts.getCounts().keySet());
+        assertEquals(Map.of("PATIENT_UPDATED", 1L), counts.getTotals());
+        assertEquals(Map.of(), eventCounters.counts(Rollup.DAY, 7, "PATIENT_DELETED").getCounts());
+    }
+
+    @Test
+    void lastMustFitTheRollupsWindow() {
+        assertThrows(InvalidQueryException.class, () -> eventCounters.counts(Rollup.DAY, 0, null));
+        assertThrows(InvalidQueryException.class, () -> eventCounters.counts(Rollup.DAY, 91, null));
+        assertThrows(InvalidQueryException.class, () -> eventCounters.counts(Rollup.HOUR, 49, null));
+        assertThrows(InvalidQueryException.class, () -> eventCounters.counts(Rollup.MINUTE, 121, null));
+        record("PATIENT_CREATED", today, 1);
+        assertEquals(90, eventCounters.counts(Rollup.DAY, 90, null).getCounts().get("PATIENT_CREATED").length);
+    }
+
+    @Test
+    void eventsOlderThanAWindowOnlyCountInTheTotal() {
+        // Two days old: outside the 120 minute and 48 hour windows, inside the 90 day one
+        record("PATIENT_CREATED", today - 2 * DAY, 1);
+        // Outside every window
+        record("PATIENT_CREATED", today - 100 * DAY, 1);
+
+        assertEquals(5, meterRegistry.get("analytics.aggregation.late").counter().count());
+        assertEquals(Map.of("PATIENT_CREATED", 2L), eventCounters.totals());
+        assertEquals(1, eventCounters.counts(Rollup.DAY, 90, null).getTotals().get("PATIENT_CREATED"));
+        assertEquals(0, eventCounters.counts(Rollup.HOUR, 48, null).getTotals().get("PATIENT_CREATED"));
+    }
+
+    @Test
+    void typesBeyondTheLimitAreCountedAsOther() {
+        record("PATIENT_CREATED", today, 1);
+        record("PATIENT_UPDATED", today, 1);
+        record("PATIENT_DELETED", today, 1);
+        record("PATIENT_MERGED", today, 2);
+        record("PATIENT_ARCHIVED", today, 1);
+        record("", today, 1);
+        // Known types keep their own counters
+        record("PATIENT_CREATED", today, 1);
+
+        assertEquals(Map.of("PATIENT_CREATED", 2L, "PATIENT_UPDATED", 1L, "PATIENT_DELETED", 1L, "OTHER", 4L),
+                eventCounters.totals());
+    }
+
+    @Test
+    void missingEventTypeIsCountedAsUnknown() {
+        record(null, today, 1);
+        record("", today, 1);
+
+        assertEquals(Map.of("UNKNOWN", 2L), eventCounters.totals());
+    }
+
+    @Test
+    void concurrentRecordsSumExactly() throws InterruptedException {
+        int threads = 8;
+        int events = 20_000;
+        long now = System.currentTimeMillis();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for(int i = 0; i < threads; i++){
+            String eventType = i % 2 == 0 ? "PATIENT_CREATED" : "PATIENT_UPDATED";
+            writers.add(Thread.ofPlatform().start(() -> {
+                try{
+                    start.await();
+                }catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for(int j = 0; j < events; j++){
+                    eventCounters.record(eventType, now);
+                }
+            }));
+        }
+        start.countDown();
+        for(Thread writer : writers){
+            writer.join();
+        }
+
+        long each = (long) threads / 2 * events;
+        assertEquals(Map.of("PATIENT_CREATED", each, "PATIENT_UPDATED", each), eventCounters.totals());
+        assertEquals(Map.of("PATIENT_CREATED", each, "PATIENT_UPDATED", each),
+                eventCounters.counts(Rollup.DAY, 1, null).getTotals());
+        assertEquals(0, meterRegistry.get("analytics.aggregation.late").counter().count());
+    }
+
+    private void record(String eventType, long timestampMillis, int times) {
+        for(int i = 0; i < times; i++){
+            eventCounters.record(eventType, timestampMillis);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.pm.analyticsservice.aggregation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+
+    private static final int PRECISION = 14;
+
+    @Test
+    void standardErrorFollowsThePrecision() {
+        assertEquals(0.0081, new HyperLogLog(PRECISION).relativeStandardError(), 0.0001);
+        assertEquals(0.0325, new HyperLogLog(10).relativeStandardError(), 0.0001);
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(3));
+        assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(19));
+    }
+
+    @Test
+    void emptySketchEstimatesZero() {
+        assertEquals(0, new HyperLogLog(PRECISION).estimate());
+    }
+
+    @Test
+    void estimatesStayWithinThreeStandardErrors() {
+        SplittableRandom random = new SplittableRandom(42);
+        for(int cardinality : new int[]{100, 1_000, 10_000, 100_000, 1_000_000}){
+            HyperLogLog sketch = new HyperLogLog(PRECISION);
+            String prefix = Long.toHexString(random.nextLong());
+            for(int i = 0; i < cardinality; i++){
+                sketch.add(Hash64.hash(prefix + "-" + i));
+            }
+            double error = Math.abs(sketch.estimate() - cardinality) / (double) cardinality;
+            assertTrue(error <= 3 * sketch.relativeStandardError(), cardinality + " values estimated with error " + error);
+        }
+    }
+
+    @Test
+    void addingTheSameValuesAgainChangesNothing() {
+        HyperLogLog sketch = new HyperLogLog(PRECISION);
+        for(int i = 0; i < 50_000; i++){
+            sketch.add(Hash64.hash("patient-" + i));
+        }
+        long estimate = sketch.estimate();
+        for(int i = 0; i < 50_000; i++){
+            sketch.add(Hash64.hash("patient-" + i));
+        }
+        assertEquals(estimate, sketch.estimate());
+    }
+
+    @Test
+    void mergeGivesTheSketchOfTheUnion() {
+        HyperLogLog first = new HyperLogLog(PRECISION);
+        HyperLogLog second = new HyperLogLog(PRECISION);
+        HyperLogLog union = new HyperLogLog(PRECISION);
+        for(int i = 0; i < 60_000; i++){
+            first.add(Hash64.hash("patient-" + i));
+            union.add(Hash64.hash("patient-" + i));
+        }
+        for(int i = 40_000; i < 100_000; i++){
+            second.add(Hash64.hash("patient-" + i));
+            union.add(Hash64.hash("patient-" + i));
+        }
+
+        HyperLogLog merged = new HyperLogLog(PRECISION);
+        merged.merge(first);
+        merged.merge(second);
+
+        // Register-wise max is exact, the overlap is not counted twice
+        assertEquals(union.estimate(), merged.estimate());
+        assertEquals(100_000, merged.estimate(), 3 * merged.relativeStandardError() * 100_000);
+        assertThrows(IllegalArgumentException.class, () -> merged.merge(new HyperLogLog(PRECISION - 1)));
+    }
+}
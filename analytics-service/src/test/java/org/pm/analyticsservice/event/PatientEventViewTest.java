@@ -0,0 +1,264 @@
+package org.pm.analyticsservice.event;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import org.junit.jupiter.api.Test;
+import org.pm.analyticsservice.aggregation.Hash64;
+import patient.events.PatientEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// Differential test against PatientEvent.parseFrom: the view accepts and rejects the same bytes and reads the
+// same values
+class PatientEventViewTest {
+
+    private static final String[] STRINGS = {
+            "", "PATIENT_CREATED", "PATIENT_UPDATED", "Jane Smith", "jane@example.com", "Jane@Example.COM",
+            "no-at-sign", "trailing@", "a@b@Mail.Example.org", "José Müller", "名前@例え.jp", "emoji 😀@x.io"
+    };
+
+    // Overlong, surrogate, above U+10FFFF, cut off multi-byte sequence, stray continuation byte
+    private static final byte[][] INVALID_UTF8 = {
+            {(byte) 0xC0, (byte) 0x80}, {(byte) 0xED, (byte) 0xA0, (byte) 0x80},
+            {(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80}, {'a', (byte) 0xE2, (byte) 0x82}, {(byte) 0x80}
+    };
+
+    private final PatientEventView view = new PatientEventView();
+
+    @Test
+    void readsTheFieldsOfAGeneratedMessage() throws InvalidProtocolBufferException {
+        String patientId = UUID.randomUUID().toString();
+        byte[] data = PatientEvent.newBuilder()
+                .setPatientId(patientId)
+                .setName("Jane Smith")
+                .setEmail("Jane@Example.COM")
+                .setEventType("PATIENT_CREATED")
+                .build().toByteArray();
+
+        view.wrap(data);
+
+        assertEquals(patientId, view.getPatientId());
+        assertEquals("Jane Smith", view.getName());
+        assertEquals("Jane@Example.COM", view.getEmail());
+        assertEquals("PATIENT_CREATED", view.getEventType());
+        assertEquals("example.com", view.emailDomain());
+        assertTrue(view.hasPatientId());
+        assertEquals(Hash64.hash(patientId), view.patientIdHash());
+        assertSameAsParseFrom(data);
+    }
+
+    @Test
+    void emptyMessageHasNoFields() throws InvalidProtocolBufferException {
+        view.wrap(new byte[0]);
+
+        assertFalse(view.hasPatientId());
+        assertEquals("", view.getEventType());
+        assertNull(view.emailDomain());
+    }
+
+    @Test
+    void lastOccurrenceOfAFieldWins() {
+        byte[] data = message(out -> {
+            string(out, PatientEvent.EMAIL_FIELD_NUMBER, "first@one.com");
+            string(out, PatientEvent.EVENT_TYPE_FIELD_NUMBER, "PATIENT_CREATED");
+            string(out, PatientEvent.EMAIL_FIELD_NUMBER, "second@Two.com");
+            string(out, PatientEvent.EVENT_TYPE_FIELD_NUMBER, "PATIENT_UPDATED");
+        });
+
+        assertSameAsParseFrom(data);
+        assertEquals("two.com", view.emailDomain());
+        assertEquals("PATIENT_UPDATED", view.getEventType());
+    }
+
+    @Test
+    void skipsUnknownFieldsOfEveryWireType() {
+        byte[] data = message(out -> {
+            out.writeUInt64(10, Long.MIN_VALUE);
+            string(out, PatientEvent.PATIENTID_FIELD_NUMBER, "patient-1");
+            out.writeFixed32(11, 7);
+            out.writeFixed64(12, -1);
+            out.writeBytes(13, ByteString.copyFrom(new byte[]{(byte) 0xFF, (byte) 0xFE}));
+            out.writeTag(14, WireFormat.WIRETYPE_START_GROUP);
+            out.writeUInt32(1, 5);
+            out.writeTag(14, WireFormat.WIRETYPE_END_GROUP);
+            string(out, PatientEvent.EVENT_TYPE_FIELD_NUMBER, "PATIENT_CREATED");
+            // A known field number with another wire type is unknown to parseFrom as well
+            out.writeUInt32(PatientEvent.EMAIL_FIELD_NUMBER, 3);
+        });
+
+        assertSameAsParseFrom(data);
+        assertEquals("patient-1", view.getPatientId());
+        assertEquals("", view.getEmail());
+    }
+
+    @Test
+    void rejectsMismatchedAndStrayGroupEnds() {
+        assertSameAsParseFrom(message(out -> {
+            out.writeTag(14, WireFormat.WIRETYPE_START_GROUP);
+            out.writeTag(15, WireFormat.WIRETYPE_END_GROUP);
+        }));
+        assertSameAsParseFrom(message(out -> out.writeTag(14, WireFormat.WIRETYPE_START_GROUP)));
+        assertSameAsParseFrom(message(out -> out.writeTag(14, WireFormat.WIRETYPE_END_GROUP)));
+        // Wire types 6 and 7 do not exist
+        assertSameAsParseFrom(message(out -> out.writeTag(14, 6)));
+        assertSameAsParseFrom(message(out -> out.writeTag(14, 7)));
+    }
+
+    @Test
+    void rejectsInvalidUtf8InEveryStringField() {
+        for(int field = PatientEvent.PATIENTID_FIELD_NUMBER; field <= PatientEvent.EVENT_TYPE_FIELD_NUMBER; field++){
+            for(byte[] invalid : INVALID_UTF8){
+                int number = field;
+                byte[] data = message(out -> out.writeByteArray(number, invalid));
+                assertThrows(InvalidProtocolBufferException.class, () -> PatientEvent.parseFrom(data));
+                assertSameAsParseFrom(data);
+            }
+        }
+    }
+
+    @Test
+    void rejectsInvalidUtf8InAnOccurrenceThatIsReplaced() {
+        byte[] data = message(out -> {
+            out.writeByteArray(PatientEvent.NAME_FIELD_NUMBER, INVALID_UTF8[0]);
+            string(out, PatientEvent.NAME_FIELD_NUMBER, "Jane Smith");
+        });
+
+        assertThrows(InvalidProtocolBufferException.class, () -> PatientEvent.parseFrom(data));
+        assertSameAsParseFrom(data);
+    }
+
+    @Test
+    void rejectsTruncatedAndMalformedVarints() {
+        // Tag cut off
+        assertSameAsParseFrom(new byte[]{(byte) 0x80});
+        // Length cut off
+        assertSameAsParseFrom(new byte[]{0x0a, (byte) 0x80});
+        // Varint value of an unknown field cut off
+        assertSameAsParseFrom(new byte[]{0x50, (byte) 0xFF, (byte) 0xFF});
+        // Longer than 10 bytes
+        byte[] overlong = new byte[12];
+        Arrays.fill(overlong, (byte) 0xFF);
+        overlong[0] = 0x50;
+        overlong[11] = 0x01;
+        assertSameAsParseFrom(overlong);
+        // Length past the end, fixed fields past the end, field number zero
+        assertSameAsParseFrom(new byte[]{0x0a, 0x05, 'a'});
+        assertSameAsParseFrom(new byte[]{0x5d, 0x01, 0x02});
+        assertSameAsParseFrom(new byte[]{0x61, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07});
+        assertSameAsParseFrom(new byte[]{0x02, 0x00});
+    }
+
+    @Test
+    void agreesWithParseFromOnRandomMutatedAndTruncatedMessages() {
+        SplittableRandom random = new SplittableRandom(25);
+        for(int i = 0; i < 20_000; i++){
+            byte[] data = randomMessage(random);
+            assertSameAsParseFrom(data);
+            if(data.length == 0){
+                continue;
+            }
+            byte[] flipped = data.clone();
+            flipped[random.nextInt(flipped.length)] ^= (byte) (1 << random.nextInt(8));
+            assertSameAsParseFrom(flipped);
+            assertSameAsParseFrom(Arrays.copyOf(data, random.nextInt(data.length)));
+        }
+    }
+
+    // Fields 1-4 as strings (sometimes invalid UTF-8), unknown fields of every wire type, repeated fields
+    private static byte[] randomMessage(SplittableRandom random) {
+        return message(out -> {
+            int fields = random.nextInt(8);
+            for(int i = 0; i < fields; i++){
+                int kind = random.nextInt(10);
+                if(kind < 6){
+                    int number = 1 + random.nextInt(4);
+                    if(random.nextInt(20) == 0){
+                        out.writeByteArray(number, INVALID_UTF8[random.nextInt(INVALID_UTF8.length)]);
+                    }else{
+                        string(out, number, random.nextInt(4) == 0
+                                ? new UUID(random.nextLong(), random.nextLong()).toString()
+                                : STRINGS[random.nextInt(STRINGS.length)]);
+                    }
+                }else if(kind == 6){
+                    out.writeUInt64(5 + random.nextInt(100), random.nextLong());
+                }else if(kind == 7){
+                    out.writeFixed32(5 + random.nextInt(100), random.nextInt());
+                }else if(kind == 8){
+                    out.writeFixed64(5 + random.nextInt(100), random.nextLong());
+                }else{
+                    int number = 5 + random.nextInt(100);
+                    out.writeTag(number, WireFormat.WIRETYPE_START_GROUP);
+                    out.writeUInt32(1, random.nextInt());
+                    out.writeTag(number, WireFormat.WIRETYPE_END_GROUP);
+                }
+            }
+        });
+    }
+
+    private void assertSameAsParseFrom(byte[] data) {
+        String hex = HexFormat.of().formatHex(data);
+        PatientEvent expected;
+        try{
+            expected = PatientEvent.parseFrom(data);
+        }catch (InvalidProtocolBufferException e){
+            assertThrows(InvalidProtocolBufferException.class, () -> view.wrap(data), "accepted " + hex);
+            return;
+        }
+        try{
+            view.wrap(data);
+        }catch (InvalidProtocolBufferException e){
+            fail("rejected " + hex + ": " + e.getMessage());
+        }
+        assertEquals(expected.getPatientId(), view.getPatientId(), hex);
+        assertEquals(expected.getName(), view.getName(), hex);
+        assertEquals(expected.getEmail(), view.getEmail(), hex);
+        assertEquals(expected.getEventType(), view.getEventType(), hex);
+        assertEquals(!expected.getPatientId().isEmpty(), view.hasPatientId(), hex);
+        assertEquals(emailDomain(expected.getEmail()), view.emailDomain(), hex);
+        if(StandardCharsets.US_ASCII.newEncoder().canEncode(expected.getPatientId())){
+            assertEquals(Hash64.hash(expected.getPatientId()), view.patientIdHash(), hex);
+        }
+    }
+
+    private static String emailDomain(String email) {
+        int at = email.lastIndexOf('@');
+        return at < 0 || at == email.length() - 1 ? null : email.substring(at + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private interface Fields {
+        void write(CodedOutputStream out) throws IOException;
+    }
+
+    private static byte[] message(Fields fields) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try{
+            fields.write(out);
+            out.flush();
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void string(CodedOutputStream out, int number, String value) throws IOException {
+        out.writeByteArray(number, value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,111 @@
+package org.pm.analyticsservice.kafka;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pm.analyticsservice.aggregation.EventCounters;
+import org.pm.analyticsservice.aggregation.PatientSketches;
+import org.pm.analyticsservice.event.PatientEventView;
+import org.pm.analyticsservice.service.PatientEventProcessor;
+import org.pm.analyticsservice.snapshot.AnalyticsState;
+import patient.events.PatientEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class KafkaConsumerTest {
+
+    private static final TopicPartition FIRST = new TopicPartition("patient", 0);
+    private static final TopicPartition SECOND = new TopicPartition("patient", 1);
+
+    private final Map<String, Integer> appliedByPatient = new ConcurrentHashMap<>();
+    private PatientEventProcessor patientEventProcessor;
+    private AnalyticsState analyticsState;
+    private KafkaConsumer kafkaConsumer;
+
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        analyticsState = new AnalyticsState(new EventCounters(120, 48, 90, 100, meterRegistry),
+                new PatientSketches(35, 14, 2048, 4, 50, Set.of("PATIENT_CREATED"), 10), false, "unused", meterRegistry);
+        patientEventProcessor = mock(PatientEventProcessor.class);
+        kafkaConsumer = new KafkaConsumer(patientEventProcessor, analyticsState, 2, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        kafkaConsumer.shutdown();
+    }
+
+    @Test
+    void aRedeliveredBatchOnlyAppliesWhatFailed() {
+        countApplied("patient-1-3");
+        List<ConsumerRecord<String, byte[]>> batch = new ArrayList<>(records(FIRST, 0, 5));
+        batch.addAll(records(SECOND, 0, 5));
+
+        assertThrows(IllegalStateException.class, () -> kafkaConsumer.consumeEvents(batch, mock(Consumer.class)));
+        // The first partition is done, the second up to the record that failed
+        assertEquals(5L, analyticsState.appliedOffset(FIRST));
+        assertEquals(3L, analyticsState.appliedOffset(SECOND));
+
+        kafkaConsumer.consumeEvents(batch, mock(Consumer.class));
+
+        assertEquals(10, appliedByPatient.size());
+        appliedByPatient.forEach((patientId, times) -> assertEquals(1, times, patientId));
+        assertEquals(5L, analyticsState.appliedOffset(FIRST));
+        assertEquals(5L, analyticsState.appliedOffset(SECOND));
+    }
+
+    @Test
+    void undecodableRecordsAreSkippedAndStillMoveTheOffset() {
+        List<ConsumerRecord<String, byte[]>> batch = new ArrayList<>(records(FIRST, 0, 2));
+        batch.add(new ConsumerRecord<>(FIRST.topic(), FIRST.partition(), 2, "bad", new byte[]{(byte) 0x0a, (byte) 0x05}));
+        countApplied(null);
+
+        kafkaConsumer.consumeEvents(batch, mock(Consumer.class));
+
+        assertEquals(Set.of("patient-0-0", "patient-0-1"), appliedByPatient.keySet());
+        assertEquals(3L, analyticsState.appliedOffset(FIRST));
+    }
+
+    // Counts the events processed per patient, processing the failing patient's event throws the first time
+    private void countApplied(String failingPatientId) {
+        AtomicBoolean failed = new AtomicBoolean();
+        doAnswer(invocation -> {
+            String patientId = invocation.<PatientEventView>getArgument(0).getPatientId();
+            if(patientId.equals(failingPatientId) && failed.compareAndSet(false, true)){
+                throw new IllegalStateException("Processing " + patientId + " failed");
+            }
+            appliedByPatient.merge(patientId, 1, Integer::sum);
+            return null;
+        }).when(patientEventProcessor).process(any(), anyLong());
+    }
+
+    private static List<ConsumerRecord<String, byte[]>> records(TopicPartition partition, long from, int count) {
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+        for(long offset = from; offset < from + count; offset++){
+            String patientId = "patient-" + partition.partition() + "-" + offset;
+            byte[] value = PatientEvent.newBuilder()
+                    .setPatientId(patientId)
+                    .setEventType("PATIENT_CREATED")
+                    .build().toByteArray();
+            records.add(new ConsumerRecord<>(partition.topic(), partition.partition(), offset, patientId, value));
+        }
+        return records;
+    }
+}
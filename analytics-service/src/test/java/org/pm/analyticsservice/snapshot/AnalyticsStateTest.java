@@ -0,0 +1,159 @@
+package org.pm.analyticsservice.snapshot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.pm.analyticsservice.aggregation.EventCounters;
+import org.pm.analyticsservice.aggregation.PatientSketches;
+import org.pm.analyticsservice.event.PatientEventView;
+import patient.events.PatientEvent;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AnalyticsStateTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("patient", 0);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writerAndReaderRoundTripAcrossChunks() throws IOException {
+        Path file = directory.resolve("body");
+        // 5M longs is more than one 4 MB chunk
+        AtomicLongArray longs = new AtomicLongArray(5_000_000);
+        for(int i = 0; i < longs.length(); i++){
+            longs.set(i, i * 31L);
+        }
+        AtomicIntegerArray ints = new AtomicIntegerArray(new int[]{3, -1, Integer.MAX_VALUE});
+        long end;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            SnapshotWriter out = new SnapshotWriter(channel, 0);
+            out.putInt(42);
+            out.putString("PATIENT_CREATED é");
+            out.putLongs(longs);
+            out.putInts(ints);
+            out.putLong(-7);
+            end = out.finish();
+        }
+        assertEquals(end, Files.size(file));
+
+        SnapshotReader in = new SnapshotReader(map(file));
+        assertEquals(42, in.getInt());
+        assertEquals("PATIENT_CREATED é", in.getString());
+        AtomicLongArray readLongs = new AtomicLongArray(longs.length());
+        in.getLongs(readLongs);
+        assertEquals(longs.toString(), readLongs.toString());
+        AtomicIntegerArray readInts = new AtomicIntegerArray(3);
+        in.getInts(readInts);
+        assertEquals(ints.toString(), readInts.toString());
+        assertEquals(-7, in.getLong());
+        assertThrows(SnapshotFormatException.class, in::getInt);
+    }
+
+    @Test
+    void readerRejectsArraysOfAnotherShape() throws IOException {
+        Path file = directory.resolve("body");
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            SnapshotWriter out = new SnapshotWriter(channel, 0);
+            out.putInts(new AtomicIntegerArray(16));
+            out.finish();
+        }
+
+        SnapshotReader in = new SnapshotReader(map(file));
+        assertThrows(SnapshotFormatException.class, () -> in.getInts(new AtomicIntegerArray(8)));
+    }
+
+    @Test
+    void restoresTheAggregatesAndOffsetsOfTheSnapshot() throws Exception {
+        Path snapshot = directory.resolve("analytics.snapshot");
+        State written = new State(snapshot);
+        written.apply(100, 250);
+
+        State restored = new State(snapshot);
+        restored.state.restore();
+
+        assertEquals(Map.of("PATIENT_CREATED", 100L), restored.eventCounters.totals());
+        assertEquals(100, restored.patientSketches.distinctPatients(7, null).getEstimate(), 3);
+        assertEquals(250L, restored.state.appliedOffset(PARTITION));
+    }
+
+    @Test
+    void aFlippedByteFailsTheChecksumAndTheSnapshotIsDiscarded() throws Exception {
+        Path snapshot = directory.resolve("analytics.snapshot");
+        new State(snapshot).apply(100, 250);
+
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length / 2] ^= 0x10;
+        Files.write(snapshot, bytes);
+
+        SnapshotFormatException e = assertThrows(SnapshotFormatException.class, () -> AnalyticsState.verify(map(snapshot)));
+        assertEquals("Snapshot checksum mismatch", e.getMessage());
+        State restored = new State(snapshot);
+        restored.state.restore();
+        assertEquals(Map.of(), restored.eventCounters.totals());
+        assertNull(restored.state.appliedOffset(PARTITION));
+    }
+
+    @Test
+    void aTruncatedSnapshotIsRejectedBeforeTheChecksum() throws Exception {
+        Path snapshot = directory.resolve("analytics.snapshot");
+        new State(snapshot).apply(100, 250);
+        try(FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)){
+            channel.truncate(channel.size() - 1);
+        }
+
+        assertThrows(SnapshotFormatException.class, () -> AnalyticsState.verify(map(snapshot)));
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static class State {
+
+        final EventCounters eventCounters;
+        final PatientSketches patientSketches;
+        final AnalyticsState state;
+
+        State(Path snapshot) {
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            eventCounters = new EventCounters(120, 48, 90, 100, meterRegistry);
+            patientSketches = new PatientSketches(35, 14, 2048, 4, 50, Set.of("PATIENT_CREATED"), 10);
+            state = new AnalyticsState(eventCounters, patientSketches, true, snapshot.toString(), meterRegistry);
+        }
+
+        // Applies `events` patient registrations up to the offset and writes the snapshot
+        void apply(int events, long nextOffset) throws Exception {
+            PatientEventView view = new PatientEventView();
+            long now = System.currentTimeMillis();
+            for(int i = 0; i < events; i++){
+                view.wrap(PatientEvent.newBuilder()
+                        .setPatientId("patient-" + i)
+                        .setEmail("patient" + i + "@example.com")
+                        .setEventType("PATIENT_CREATED")
+                        .build().toByteArray());
+                eventCounters.record(view.getEventType(), now);
+                patientSketches.record(view, now);
+            }
+            state.applied(PARTITION, nextOffset);
+            state.snapshot();
+        }
+    }
+}
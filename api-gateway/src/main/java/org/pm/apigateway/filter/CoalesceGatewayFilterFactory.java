@@ -0,0 +1,222 @@
+package org.pm.apigateway.filter;
+
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.support.HasRouteId;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Single-flight for GETs on one route: while a request is being forwarded, identical ones wait for it and
+// get a copy of its response instead of being forwarded too. Identical means same path, query, Accept,
+// Accept-Encoding, conditional headers and auth scope: the caller's subject, with scope: role every caller
+// with the same role (for responses that only depend on the role), or with scope: none every caller (for
+// responses that do not depend on who is asking, the same assumption ResponseCache makes). Nothing is kept
+// once the response has been received, this is not a cache.
+//
+// If the leader's response is larger than max-body-size, fails or is cancelled, the waiting requests are
+// forwarded on their own. gateway.coalesce.requests counts leaders, followers served from a shared
+// response and followers that had to fall back, per route; followers / total is the coalescing ratio.
+//
+//   - name: Coalesce
+//     args:
+//       scope: subject      # or role, none
+//       max-body-size: 4MB
+@Component
+public class CoalesceGatewayFilterFactory extends AbstractGatewayFilterFactory<CoalesceGatewayFilterFactory.Config> {
+
+    // Right before the filter that writes the service's response, so the body can be copied
+    public static final int ORDER = NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1;
+
+    public enum Scope { SUBJECT, ROLE, NONE }
+
+    private final MeterRegistry meterRegistry;
+
+    public CoalesceGatewayFilterFactory(MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        return new OrderedGatewayFilter(new RouteCoalescer(config, meterRegistry), ORDER);
+    }
+
+    private static class RouteCoalescer implements GatewayFilter {
+
+        private final Scope scope;
+        private final long maxBodyBytes;
+        private final Map<String, CompletableFuture<SharedResponse>> inFlight = new ConcurrentHashMap<>();
+
+        private final Counter leaders;
+        private final Counter followers;
+        private final Counter fallbacks;
+
+        RouteCoalescer(Config config, MeterRegistry meterRegistry) {
+            this.scope = config.getScope();
+            this.maxBodyBytes = config.getMaxBodySize().toBytes();
+            String route = config.getRouteId() == null ? "unknown" : config.getRouteId();
+            this.leaders = counter(meterRegistry, route, "leader");
+            this.followers = counter(meterRegistry, route, "follower");
+            this.fallbacks = counter(meterRegistry, route, "fallback");
+        }
+
+        private static Counter counter(MeterRegistry meterRegistry, String route, String role){
+            return Counter.builder("gateway.coalesce.requests")
+                    .description("GET requests by whether they were forwarded or shared another one's response")
+                    .tag("route", route)
+                    .tag("role", role)
+                    .register(meterRegistry);
+        }
+
+        @Override
+        public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+            if(!HttpMethod.GET.equals(exchange.getRequest().getMethod())){
+                return chain.filter(exchange);
+            }
+
+            String key = keyOf(exchange);
+            CompletableFuture<SharedResponse> flight = new CompletableFuture<>();
+            CompletableFuture<SharedResponse> leader = inFlight.putIfAbsent(key, flight);
+            if(leader != null){
+                // A follower going away must not cancel the leader's call
+                return Mono.fromFuture(leader, true).flatMap(shared -> {
+                    if(shared.body() == null){
+                        fallbacks.increment();
+                        return chain.filter(exchange);
+                    }
+                    followers.increment();
+                    return replay(exchange.getResponse(), shared);
+                });
+            }
+
+            leaders.increment();
+            ServerHttpResponseDecorator sharing = new ServerHttpResponseDecorator(exchange.getResponse()) {
+                @Override
+                public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                    HttpStatusCode status = getStatusCode();
+                    HttpHeaders headers = sharedHeaders(getHeaders());
+                    return super.writeWith(ResponseBodies.copying(Flux.from(body), maxBodyBytes,
+                            copy -> land(key, flight, new SharedResponse(status, headers, copy))));
+                }
+
+                @Override
+                public Mono<Void> setComplete() {
+                    land(key, flight, new SharedResponse(getStatusCode(), sharedHeaders(getHeaders()), new byte[0]));
+                    return super.setComplete();
+                }
+            };
+            return chain.filter(exchange.mutate().response(sharing).build())
+                    .doFinally(signal -> land(key, flight, SharedResponse.NONE));
+        }
+
+        // The first outcome wins. The key is freed first, so a request arriving now starts a new flight
+        private void land(String key, CompletableFuture<SharedResponse> flight, SharedResponse response){
+            inFlight.remove(key, flight);
+            flight.complete(response);
+        }
+
+        private static Mono<Void> replay(ServerHttpResponse response, SharedResponse shared){
+            response.setStatusCode(shared.status());
+            response.getHeaders().putAll(shared.headers());
+            if(shared.body().length == 0){
+                return response.setComplete();
+            }
+            response.getHeaders().setContentLength(shared.body().length);
+            return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(shared.body())));
+        }
+
+        private static HttpHeaders sharedHeaders(HttpHeaders headers){
+            HttpHeaders shared = new HttpHeaders();
+            headers.forEach((name, values) -> shared.put(name, List.copyOf(values)));
+            shared.remove(HttpHeaders.CONTENT_LENGTH);
+            shared.remove(HttpHeaders.TRANSFER_ENCODING);
+            return shared;
+        }
+
+        private String keyOf(ServerWebExchange exchange){
+            ServerHttpRequest request = exchange.getRequest();
+            HttpHeaders headers = request.getHeaders();
+            return request.getURI().getRawPath()
+                    + '?' + request.getURI().getRawQuery()
+                    + '|' + headers.getFirst(HttpHeaders.ACCEPT)
+                    + '|' + headers.getFirst(HttpHeaders.ACCEPT_ENCODING)
+                    + '|' + headers.getFirst(HttpHeaders.IF_NONE_MATCH)
+                    + '|' + headers.getFirst(HttpHeaders.IF_MODIFIED_SINCE)
+                    + '|' + scopeOf(exchange);
+        }
+
+        // Without verified claims (remote verification) only requests with the same token are merged
+        private String scopeOf(ServerWebExchange exchange){
+            if(scope == Scope.NONE){
+                return "any";
+            }
+            Claims claims = exchange.getAttribute(JwtValidationGatewayFilterFactory.CLAIMS_ATTRIBUTE);
+            if(claims == null){
+                return "token:" + exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+            }
+            return scope == Scope.ROLE
+                    ? "role:" + claims.get("role", String.class)
+                    : "sub:" + claims.getSubject();
+        }
+    }
+
+    // body is null when the response could not be shared
+    private record SharedResponse(HttpStatusCode status, HttpHeaders headers, byte[] body) {
+        static final SharedResponse NONE = new SharedResponse(null, null, null);
+    }
+
+    public static class Config implements HasRouteId {
+
+        private String routeId;
+        private Scope scope = Scope.SUBJECT;
+        private DataSize maxBodySize = DataSize.ofMegabytes(4);
+
+        @Override
+        public void setRouteId(String routeId) {
+            this.routeId = routeId;
+        }
+
+        @Override
+        public String getRouteId() {
+            return routeId;
+        }
+
+        public Scope getScope() {
+            return scope;
+        }
+
+        public void setScope(Scope scope) {
+            this.scope = scope;
+        }
+
+        public DataSize getMaxBodySize() {
+            return maxBodySize;
+        }
+
+        public void setMaxBodySize(DataSize maxBodySize) {
+            this.maxBodySize = maxBodySize;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package org.pm.apigateway.filter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.pm.apigateway.latency.RouteLatencyRecorder;
+import org.pm.apigateway.latency.UpstreamLatencyFilter;
+import org.pm.apigateway.routing.UpstreamHttpClients;
+import org.pm.apigateway.routing.UpstreamRoutingFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.HasRouteId;
+import org.springframework.cloud.gateway.support.RouteMetadataUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_REQUEST_URL_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.isAlreadyRouted;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.setAlreadyRouted;
+
+// Hedged GETs: when the service has not answered within the route's recent upstream p95 (see
+// RouteLatencyRecorder), the same GET is sent a second time and whichever response arrives first is used,
+// the other call is cancelled. This cuts the tail caused by one slow instance, GC pause or lost packet.
+//
+// Hedged requests are forwarded by this filter instead of UpstreamRoutingFilter and their responses are
+// buffered, so it skips streaming responses (NDJSON, server-sent events). Until the route has min-samples
+// calls in the last latency window there is no p95 and requests are forwarded normally. Hedges are
+// limited to max-ratio of the route's requests, so a backend that is slow across the board does not get
+// twice the load, that case is left to the circuit breaker. gateway.hedge.requests{route, outcome=sent|won}.
+//
+//   - name: Hedge
+//     args:
+//       min-delay: 20ms
+//       max-ratio: 0.1
+@Component
+public class HedgeGatewayFilterFactory extends AbstractGatewayFilterFactory<HedgeGatewayFilterFactory.Config> {
+
+    // After the request URL is resolved, right before the call to the service
+    public static final int ORDER = UpstreamLatencyFilter.ORDER - 1;
+
+    private static final List<MediaType> STREAMING = List.of(MediaType.APPLICATION_NDJSON, MediaType.TEXT_EVENT_STREAM);
+
+    private final UpstreamHttpClients upstreamHttpClients;
+    private final UpstreamRoutingFilter upstreamRoutingFilter;
+    private final RouteLatencyRecorder routeLatencyRecorder;
+    private final MeterRegistry meterRegistry;
+
+    public HedgeGatewayFilterFactory(
+            UpstreamHttpClients upstreamHttpClients,
+            UpstreamRoutingFilter upstreamRoutingFilter,
+            RouteLatencyRecorder routeLatencyRecorder,
+            MeterRegistry meterRegistry) {
+        super(Config.class);
+        this.upstreamHttpClients = upstreamHttpClients;
+        this.upstreamRoutingFilter = upstreamRoutingFilter;
+        this.routeLatencyRecorder = routeLatencyRecorder;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        return new OrderedGatewayFilter(new RouteHedger(config), ORDER);
+    }
+
+    private class RouteHedger implements GatewayFilter {
+
+        // Hedge budget in thousandths of a hedge: every request adds max-ratio, a hedge takes a whole one,
+        // at most MAX_CREDIT can be saved up
+        private static final long MAX_CREDIT = 10_000;
+
+        private final long minDelayNanos;
+        private final long creditPerRequest;
+        private final AtomicLong credit = new AtomicLong();
+        private final Counter sent;
+        private final Counter won;
+
+        RouteHedger(Config config) {
+            this.minDelayNanos = config.getMinDelay().toNanos();
+            this.creditPerRequest = Math.round(config.getMaxRatio() * 1000);
+            String route = config.getRouteId() == null ? "unknown" : config.getRouteId();
+            this.sent = counter(route, "sent");
+            this.won = counter(route, "won");
+        }
+
+        private Counter counter(String route, String outcome){
+            return Counter.builder("gateway.hedge.requests")
+                    .description("Second attempts sent for slow GETs, and how many of them answered first")
+                    .tag("route", route)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry);
+        }
+
+        @Override
+        public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+            Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+            URI url = exchange.getAttribute(GATEWAY_REQUEST_URL_ATTR);
+            if(route == null || url == null || isAlreadyRouted(exchange) || !isHedgeable(exchange, url)){
+                return chain.filter(exchange);
+            }
+            addCredit();
+            long p95 = routeLatencyRecorder.upstreamP95Nanos(route.getId());
+            if(p95 < 0){
+                return chain.filter(exchange);
+            }
+            setAlreadyRouted(exchange);
+
+            HttpClient client = upstreamHttpClients.forRoute(route);
+            HttpHeaders headers = HttpHeadersFilter.filterRequest(upstreamRoutingFilter.getHeadersFilters(), exchange);
+            headers.remove(HttpHeaders.HOST);
+
+            Mono<Attempt> first = attempt(client, url, headers, route.getId(), false);
+            Mono<Attempt> second = Mono.delay(Duration.ofNanos(Math.max(p95, minDelayNanos)))
+                    .filter(tick -> tryTakeCredit())
+                    .flatMap(tick -> {
+                        sent.increment();
+                        return attempt(client, url, headers, route.getId(), true);
+                    });
+
+            Mono<Attempt> winner = Mono.firstWithValue(first, second)
+                    // Both failed (or the hedge was not sent): report the first attempt's error
+                    .onErrorMap(NoSuchElementException.class,
+                            e -> e.getSuppressed().length > 0 ? e.getSuppressed()[0] : e)
+                    .onErrorMap(UpstreamRoutingFilter::mapPoolExhausted);
+            Duration timeout = responseTimeout(route);
+            if(timeout != null){
+                winner = winner.timeout(timeout, Mono.error(() -> new ResponseStatusException(
+                        HttpStatus.GATEWAY_TIMEOUT, "Response took longer than timeout: " + timeout, new TimeoutException())));
+            }
+            return winner.flatMap(attempt -> {
+                if(attempt.hedge()){
+                    won.increment();
+                }
+                return write(exchange, attempt);
+            });
+        }
+
+        private boolean isHedgeable(ServerWebExchange exchange, URI url){
+            if(!HttpMethod.GET.equals(exchange.getRequest().getMethod())){
+                return false;
+            }
+            String scheme = url.getScheme();
+            if(!"http".equals(scheme) && !"https".equals(scheme)){
+                return false;
+            }
+            List<MediaType> accept = exchange.getRequest().getHeaders().getAccept();
+            return accept.stream().noneMatch(type -> !type.isWildcardType() && STREAMING.stream().anyMatch(type::isCompatibleWith));
+        }
+
+        private Mono<Attempt> attempt(HttpClient client, URI url, HttpHeaders headers, String routeId, boolean hedge){
+            return Mono.defer(() -> {
+                long start = System.nanoTime();
+                AtomicBoolean recorded = new AtomicBoolean();
+                return client
+                        .headers(outbound -> headers.forEach(outbound::set))
+                        .get()
+                        .uri(url)
+                        .responseSingle((response, body) -> {
+                            // Upstream latency is time to the response headers, like UpstreamLatencyFilter
+                            if(recorded.compareAndSet(false, true)){
+                                routeLatencyRecorder.recordUpstream(routeId, System.nanoTime() - start);
+                            }
+                            HttpHeaders responseHeaders = new HttpHeaders();
+                            response.responseHeaders().forEach(header -> responseHeaders.add(header.getKey(), header.getValue()));
+                            return body.asByteArray()
+                                    .defaultIfEmpty(new byte[0])
+                                    .map(bytes -> new Attempt(HttpStatusCode.valueOf(response.status().code()), responseHeaders, bytes, hedge));
+                        })
+                        // The attempt that lost took at least this long, leaving it out would pull the p95 down
+                        .doOnCancel(() -> {
+                            if(recorded.compareAndSet(false, true)){
+                                routeLatencyRecorder.recordUpstream(routeId, System.nanoTime() - start);
+                            }
+                        });
+            });
+        }
+
+        private Mono<Void> write(ServerWebExchange exchange, Attempt attempt){
+            ServerHttpResponse response = exchange.getResponse();
+            HttpHeaders headers = HttpHeadersFilter.filter(upstreamRoutingFilter.getHeadersFilters(), attempt.headers(),
+                    exchange, HttpHeadersFilter.Type.RESPONSE);
+            headers.remove(HttpHeaders.TRANSFER_ENCODING);
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+            response.setStatusCode(attempt.status());
+            response.getHeaders().putAll(headers);
+            response.getHeaders().setContentLength(attempt.body().length);
+            return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(attempt.body())));
+        }
+
+        private void addCredit(){
+            long current;
+            do{
+                current = credit.get();
+                if(current >= MAX_CREDIT){
+                    return;
+                }
+            }while(!credit.compareAndSet(current, Math.min(MAX_CREDIT, current + creditPerRequest)));
+        }
+
+        private boolean tryTakeCredit(){
+            long current;
+            do{
+                current = credit.get();
+                if(current < 1000){
+                    return false;
+                }
+            }while(!credit.compareAndSet(current, current - 1000));
+            return true;
+        }
+
+        private static Duration responseTimeout(Route route){
+            Object timeout = route.getMetadata().get(RouteMetadataUtils.RESPONSE_TIMEOUT_ATTR);
+            if(timeout == null){
+                return null;
+            }
+            long millis = Long.parseLong(timeout.toString());
+            return millis < 0 ? null : Duration.ofMillis(millis);
+        }
+    }
+
+    private record Attempt(HttpStatusCode status, HttpHeaders headers, byte[] body, boolean hedge) {
+    }
+
+    public static class Config implements HasRouteId {
+
+        private String routeId;
+        private Duration minDelay = Duration.ofMillis(20);
+        private double maxRatio = 0.1;
+
+        @Override
+        public void setRouteId(String routeId) {
+            this.routeId = routeId;
+        }
+
+        @Override
+        public String getRouteId() {
+            return routeId;
+        }
+
+        public Duration getMinDelay() {
+            return minDelay;
+        }
+
+        public void setMinDelay(Duration minDelay) {
+            this.minDelay = minDelay;
+        }
+
+        public double getMaxRatio() {
+            return maxRatio;
+        }
+
+        public void setMaxRatio(double maxRatio) {
+            this.maxRatio = maxRatio;
+        }
+    }
+}
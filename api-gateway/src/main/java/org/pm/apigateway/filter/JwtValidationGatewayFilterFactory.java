@@ -1,39 +1,178 @@
 package org.pm.apigateway.filter;
 
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import org.pm.apigateway.jwt.JwtVerifier;
+import org.pm.apigateway.jwt.UnknownSigningKeyException;
+import org.pm.apigateway.routing.UpstreamHttpClients;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
 import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+// Tokens are verified in the gateway with JwtVerifier. auth-service's /validate is only called when
+// auth.jwt.verification=remote, or as a fallback (auth.jwt.remote-fallback) for tokens no local key can verify.
+//
+// Remote results are cached under the SHA-256 digest of the token. A valid token is remembered until its exp
+// claim or auth.jwt.validation-cache.ttl, whichever comes first, a rejected one for negative-ttl. Concurrent
+// misses for the same token share one /validate call. Failed calls (auth-service unreachable) are not cached.
 @Component
 public class JwtValidationGatewayFilterFactory extends AbstractGatewayFilterFactory<Object> {
 
+    // Verified claims of the caller, set when the token was verified locally
+    public static final String CLAIMS_ATTRIBUTE = JwtValidationGatewayFilterFactory.class.getName() + ".claims";
+
+    // Ahead of every filter that can answer from the gateway itself (RateLimit, ResponseCache)
+    public static final int ORDER = RateLimitGatewayFilterFactory.ORDER - 1;
+
+    public enum Verification { LOCAL, REMOTE }
+
     private final WebClient webClient;
+    private final JwtVerifier jwtVerifier;
+    private final Verification verification;
+    private final boolean remoteFallback;
+    private final ObjectMapper objectMapper;
+    private final AsyncCache<String, RemoteValidation> remoteValidations;
 
-    public JwtValidationGatewayFilterFactory(WebClient.Builder webClientBuilder, @Value("${auth.service.url}") String authServiceUrl) {
-        this.webClient = webClientBuilder.baseUrl(authServiceUrl).build();
+    public JwtValidationGatewayFilterFactory(
+            WebClient.Builder webClientBuilder,
+            @Value("${auth.service.url}") String authServiceUrl,
+            UpstreamHttpClients upstreamHttpClients,
+            JwtVerifier jwtVerifier,
+            @Value("${auth.jwt.verification:local}") Verification verification,
+            @Value("${auth.jwt.remote-fallback:true}") boolean remoteFallback,
+            @Value("${auth.jwt.validation-cache.max-size:100000}") long cacheMaxSize,
+            @Value("${auth.jwt.validation-cache.ttl:5m}") Duration cacheTtl,
+            @Value("${auth.jwt.validation-cache.negative-ttl:10s}") Duration negativeTtl,
+            ObjectMapper objectMapper) {
+        // Pool and protocol from auth.service.pool.* / auth.service.protocol, like a route's metadata
+        this.webClient = webClientBuilder
+                .baseUrl(authServiceUrl)
+                .clientConnector(new ReactorClientHttpConnector(upstreamHttpClients.fromProperties("auth-service-validate", "auth.service")))
+                .build();
+        this.jwtVerifier = jwtVerifier;
+        this.verification = verification;
+        this.remoteFallback = remoteFallback;
+        this.objectMapper = objectMapper;
+        this.remoteValidations = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfter(new RemoteValidationExpiry(cacheTtl, negativeTtl))
+                .buildAsync();
     }
 
     @Override
     public GatewayFilter apply(Object config) {
-        return (exchange, chain) -> {
+        return new OrderedGatewayFilter((exchange, chain) -> {
             String token = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
 
             if(token == null || !token.startsWith("Bearer ")) {
-                exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
-                return exchange.getResponse().setComplete();
+                return unauthorized(exchange);
+            }
+
+            if(verification == Verification.REMOTE){
+                return validateRemotely(token)
+                        .flatMap(valid -> valid ? chain.filter(exchange) : unauthorized(exchange));
             }
 
-            return webClient.get()
-                    .uri("/validate")
-                    .header(HttpHeaders.AUTHORIZATION, token)
-                    .retrieve()
-                    .toBodilessEntity()
-                    .then(chain.filter(exchange));
-        };
+            try{
+                Claims claims = jwtVerifier.verify(token.substring(7));
+                exchange.getAttributes().put(CLAIMS_ATTRIBUTE, claims);
+            }catch (UnknownSigningKeyException e){
+                return remoteFallback
+                        ? validateRemotely(token).flatMap(valid -> valid ? chain.filter(exchange) : unauthorized(exchange))
+                        : unauthorized(exchange);
+            }catch (JwtException | IllegalArgumentException e){
+                return unauthorized(exchange);
+            }
+            return chain.filter(exchange);
+        }, ORDER);
+    }
+
+    private Mono<Boolean> validateRemotely(String token){
+        // Whoever misses first starts the call, everyone else waits on the same future. Cancelling one
+        // waiter must not cancel the call for the others.
+        return Mono.fromFuture(remoteValidations.get(digest(token), (key, executor) -> webClient.get()
+                        .uri("/validate")
+                        .header(HttpHeaders.AUTHORIZATION, token)
+                        .retrieve()
+                        .toBodilessEntity()
+                        .map(response -> new RemoteValidation(true, expiryOf(token)))
+                        .onErrorResume(WebClientResponseException.Unauthorized.class,
+                                e -> Mono.just(new RemoteValidation(false, null)))
+                        .toFuture()), true)
+                .map(RemoteValidation::valid);
+    }
+
+    private static String digest(String token){
+        try{
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        }catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // auth-service has just accepted the token, so its exp claim can be read without verifying it again
+    private Instant expiryOf(String token){
+        try{
+            String[] parts = token.substring(7).split("\\.");
+            JsonNode exp = objectMapper.readTree(Base64.getUrlDecoder().decode(parts[1])).get("exp");
+            return exp != null && exp.canConvertToLong() ? Instant.ofEpochSecond(exp.asLong()) : null;
+        }catch (Exception e){
+            return null;
+        }
+    }
+
+    private record RemoteValidation(boolean valid, Instant tokenExpiry) {
+    }
+
+    private record RemoteValidationExpiry(Duration ttl, Duration negativeTtl) implements Expiry<String, RemoteValidation> {
+        @Override
+        public long expireAfterCreate(String key, RemoteValidation validation, long currentTime) {
+            if(!validation.valid()){
+                return negativeTtl.toNanos();
+            }
+            if(validation.tokenExpiry() == null){
+                return ttl.toNanos();
+            }
+            Duration untilExpiry = Duration.between(Instant.now(), validation.tokenExpiry());
+            return Math.max(0, Math.min(ttl.toNanos(), untilExpiry.toNanos()));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, RemoteValidation validation, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, validation, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, RemoteValidation validation, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    private static Mono<Void> unauthorized(ServerWebExchange exchange){
+        exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
+        return exchange.getResponse().setComplete();
     }
 }
@@ -0,0 +1,196 @@
+package org.pm.apigateway.filter;
+
+import io.jsonwebtoken.Claims;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-memory token buckets for one route, keyed by the JWT subject (set by JwtValidation) or by the client
+// address. Requests over the limit get 429 with Retry-After. Nothing is shared between gateway instances.
+//
+// A bucket is a single AtomicLong holding the time at which it will be full again: taking a token moves
+// that time forward by one refill interval, and the request is refused when it would end up more than
+// capacity intervals ahead of now. One CAS per request, no locks. A bucket that has been full for
+// idle-timeout is indistinguishable from a new one, so it is dropped. At most max-keys buckets are
+// kept, beyond that new keys share one overflow bucket until idle ones are swept.
+//
+//   - name: RateLimit
+//     args:
+//       key: subject        # or ip
+//       rate: 20            # tokens per second
+//       capacity: 40        # burst
+//       idle-timeout: 1m
+//       max-keys: 100000
+@Component
+public class RateLimitGatewayFilterFactory extends AbstractGatewayFilterFactory<RateLimitGatewayFilterFactory.Config> {
+
+    // After JwtValidation so the subject is known, before ResponseCache so cached reads count too
+    public static final int ORDER = ResponseCacheGatewayFilterFactory.ORDER - 1;
+
+    private static final String OVERFLOW_KEY = "";
+
+    public enum Key { SUBJECT, IP }
+
+    public RateLimitGatewayFilterFactory() {
+        super(Config.class);
+    }
+
+    @Override
+    public List<String> shortcutFieldOrder() {
+        return List.of("key", "rate", "capacity");
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        return new OrderedGatewayFilter(new RouteRateLimiter(config), ORDER);
+    }
+
+    private static class RouteRateLimiter implements GatewayFilter {
+
+        private final Key key;
+        private final long intervalNanos;
+        private final long burstNanos;
+        private final long idleNanos;
+        private final int maxKeys;
+        private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+        private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+
+        RouteRateLimiter(Config config) {
+            if(config.getRate() <= 0 || config.getCapacity() < 1){
+                throw new IllegalArgumentException("RateLimit needs a positive rate and a capacity of at least 1");
+            }
+            this.key = config.getKey();
+            this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / config.getRate()));
+            this.burstNanos = intervalNanos * config.getCapacity();
+            this.idleNanos = config.getIdleTimeout().toNanos();
+            this.maxKeys = config.getMaxKeys();
+        }
+
+        @Override
+        public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+            long now = System.nanoTime();
+            sweepIfDue(now);
+
+            long waitNanos = tryAcquire(bucketFor(keyOf(exchange), now), now);
+            if(waitNanos == 0){
+                return chain.filter(exchange);
+            }
+            exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+            exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER,
+                    String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1))));
+            return exchange.getResponse().setComplete();
+        }
+
+        // Returns 0 when a token was taken, otherwise how long until one is available
+        private long tryAcquire(AtomicLong fullAt, long now){
+            while(true){
+                long current = fullAt.get();
+                long next = Math.max(current, now) + intervalNanos;
+                if(next - now > burstNanos){
+                    return next - now - burstNanos;
+                }
+                if(fullAt.compareAndSet(current, next)){
+                    return 0;
+                }
+            }
+        }
+
+        private AtomicLong bucketFor(String key, long now){
+            AtomicLong bucket = buckets.get(key);
+            if(bucket != null){
+                return bucket;
+            }
+            if(buckets.size() >= maxKeys){
+                key = OVERFLOW_KEY;
+            }
+            // A new bucket starts full
+            return buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+
+        private String keyOf(ServerWebExchange exchange){
+            if(key == Key.SUBJECT){
+                Claims claims = exchange.getAttribute(JwtValidationGatewayFilterFactory.CLAIMS_ATTRIBUTE);
+                if(claims != null && claims.getSubject() != null){
+                    return "sub:" + claims.getSubject();
+                }
+            }
+            // With server.forward-headers-strategy set this is the address from X-Forwarded-For
+            InetSocketAddress address = exchange.getRequest().getRemoteAddress();
+            return address == null || address.getAddress() == null
+                    ? "ip:unknown"
+                    : "ip:" + address.getAddress().getHostAddress();
+        }
+
+        // One request at a time wins the right to sweep, the others carry on
+        private void sweepIfDue(long now){
+            long due = nextSweep.get();
+            if(now - due < 0 || !nextSweep.compareAndSet(due, now + Math.max(idleNanos, TimeUnit.SECONDS.toNanos(1)))){
+                return;
+            }
+            buckets.entrySet().removeIf(entry -> now - entry.getValue().get() > idleNanos);
+        }
+    }
+
+    public static class Config {
+
+        private Key key = Key.SUBJECT;
+        private double rate = 10;
+        private int capacity = 20;
+        private Duration idleTimeout = Duration.ofMinutes(1);
+        private int maxKeys = 100_000;
+
+        public Key getKey() {
+            return key;
+        }
+
+        public void setKey(Key key) {
+            this.key = key;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+
+        public void setRate(double rate) {
+            this.rate = rate;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public Duration getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
+        public int getMaxKeys() {
+            return maxKeys;
+        }
+
+        public void setMaxKeys(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.pm.apigateway.filter;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+final class ResponseBodies {
+
+    private ResponseBodies() {
+    }
+
+    // Passes the body through unchanged and hands a copy of it to onComplete once it has been fully
+    // written, or null when it was larger than maxBytes. Nothing is handed over if the body fails or
+    // the client goes away.
+    static Flux<DataBuffer> copying(Flux<? extends DataBuffer> body, long maxBytes, Consumer<byte[]> onComplete){
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        boolean[] tooLarge = {false};
+        return body
+                .map(buffer -> {
+                    int length = buffer.readableByteCount();
+                    if(!tooLarge[0] && copy.size() + length <= maxBytes){
+                        byte[] bytes = new byte[length];
+                        buffer.toByteBuffer(buffer.readPosition(), ByteBuffer.wrap(bytes), 0, length);
+                        copy.writeBytes(bytes);
+                    }else if(!tooLarge[0]){
+                        tooLarge[0] = true;
+                        copy.reset();
+                    }
+                    return (DataBuffer) buffer;
+                })
+                .doOnComplete(() -> onComplete.accept(tooLarge[0] ? null : copy.toByteArray()));
+    }
+}
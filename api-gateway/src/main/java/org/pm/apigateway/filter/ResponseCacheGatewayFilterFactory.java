@@ -0,0 +1,244 @@
+package org.pm.apigateway.filter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.gateway.filter.GatewayFilter;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.OrderedGatewayFilter;
+import org.springframework.cloud.gateway.filter.factory.AbstractGatewayFilterFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Shared cache of GET responses for one route. It runs after JwtValidation and RateLimit, so only
+// authenticated callers within their limit are served from it, and before the filter that writes the
+// service's response, so it can record the body. Responses must not depend on who is asking, which holds
+// for the patient API: patient-service answers every authenticated caller the same way. Coalesce on the same
+// route runs with scope: none for the same reason.
+//
+// A hit is answered without calling the service, with a 304 when If-None-Match matches the stored ETag.
+// Misses are forwarded without the client's validators so the full body can be stored while it streams
+// through, the client still gets a 304 if it already had that version. Any other method on the route
+// empties the cache before it is forwarded and again once it completes, and a GET that started before a
+// write finished is not stored. Writes that bypass the gateway are picked up after ttl.
+//
+//   - name: ResponseCache
+//     args:
+//       ttl: 30s
+//       max-size: 64MB
+//       max-entry-size: 1MB
+@Component
+public class ResponseCacheGatewayFilterFactory extends AbstractGatewayFilterFactory<ResponseCacheGatewayFilterFactory.Config> {
+
+    public static final int ORDER = CoalesceGatewayFilterFactory.ORDER - 1;
+
+    private static final List<String> STORED_HEADERS = List.of(
+            HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_ENCODING, HttpHeaders.ETAG,
+            HttpHeaders.LAST_MODIFIED, HttpHeaders.CACHE_CONTROL);
+
+    public ResponseCacheGatewayFilterFactory() {
+        super(Config.class);
+    }
+
+    @Override
+    public List<String> shortcutFieldOrder() {
+        return List.of("ttl", "maxSize");
+    }
+
+    @Override
+    public GatewayFilter apply(Config config) {
+        return new OrderedGatewayFilter(new RouteResponseCache(config), ORDER);
+    }
+
+    private static class RouteResponseCache implements GatewayFilter {
+
+        private final Cache<String, CachedResponse> responses;
+        private final long maxEntryBytes;
+        // Bumped by every write, a response is only stored if no write happened while it was fetched
+        private final AtomicLong generation = new AtomicLong();
+
+        RouteResponseCache(Config config) {
+            this.maxEntryBytes = config.getMaxEntrySize().toBytes();
+            this.responses = Caffeine.newBuilder()
+                    .maximumWeight(config.getMaxSize().toBytes())
+                    .weigher((String key, CachedResponse response) -> key.length() + response.body().length)
+                    .expireAfterWrite(config.getTtl())
+                    .build();
+        }
+
+        @Override
+        public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+            HttpMethod method = exchange.getRequest().getMethod();
+            if(HttpMethod.GET.equals(method)){
+                return get(exchange, chain);
+            }
+            if(HttpMethod.HEAD.equals(method) || HttpMethod.OPTIONS.equals(method)){
+                return chain.filter(exchange);
+            }
+            invalidate();
+            return chain.filter(exchange).doFinally(signal -> invalidate());
+        }
+
+        private void invalidate(){
+            generation.incrementAndGet();
+            responses.invalidateAll();
+        }
+
+        private Mono<Void> get(ServerWebExchange exchange, GatewayFilterChain chain){
+            ServerHttpRequest request = exchange.getRequest();
+            String key = keyOf(request);
+            CachedResponse cached = responses.getIfPresent(key);
+            if(cached != null){
+                return replay(exchange, cached);
+            }
+
+            long fetchedAt = generation.get();
+            List<String> ifNoneMatch = request.getHeaders().getIfNoneMatch();
+            ServerHttpRequest upstream = request.mutate()
+                    .headers(headers -> {
+                        headers.remove(HttpHeaders.IF_NONE_MATCH);
+                        headers.remove(HttpHeaders.IF_MODIFIED_SINCE);
+                    })
+                    .build();
+            ServerHttpResponse response = exchange.getResponse();
+            ServerHttpResponseDecorator recording = new ServerHttpResponseDecorator(response) {
+                @Override
+                public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                    ServerHttpResponse delegate = getDelegate();
+                    if(!isStorable(delegate)){
+                        return super.writeWith(body);
+                    }
+                    Flux<DataBuffer> recorded = record(Flux.from(body), key, storedHeaders(delegate.getHeaders()), fetchedAt);
+                    String etag = delegate.getHeaders().getETag();
+                    if(etag == null || !matches(ifNoneMatch, etag)){
+                        return super.writeWith(recorded);
+                    }
+                    // The client already has this version: store the body, answer 304
+                    delegate.setStatusCode(HttpStatus.NOT_MODIFIED);
+                    delegate.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+                    delegate.getHeaders().remove(HttpHeaders.CONTENT_TYPE);
+                    return recorded.doOnNext(DataBufferUtils::release).then(delegate.setComplete());
+                }
+            };
+            return chain.filter(exchange.mutate().request(upstream).response(recording).build());
+        }
+
+        // Copies the body as it passes through, the client is not kept waiting for the copy
+        private Flux<DataBuffer> record(Flux<? extends DataBuffer> body, String key, HttpHeaders headers, long fetchedAt){
+            return ResponseBodies.copying(body, maxEntryBytes, copy -> {
+                if(copy != null && generation.get() == fetchedAt){
+                    responses.put(key, new CachedResponse(headers, copy));
+                }
+            });
+        }
+
+        private boolean isStorable(ServerHttpResponse response){
+            if(!HttpStatus.OK.equals(response.getStatusCode())){
+                return false;
+            }
+            HttpHeaders headers = response.getHeaders();
+            String cacheControl = headers.getCacheControl();
+            if(cacheControl != null && (cacheControl.contains("no-store") || cacheControl.contains("private"))){
+                return false;
+            }
+            return headers.getContentLength() <= maxEntryBytes;
+        }
+
+        private static Mono<Void> replay(ServerWebExchange exchange, CachedResponse cached){
+            ServerHttpResponse response = exchange.getResponse();
+            String etag = cached.headers().getETag();
+            if(etag != null && matches(exchange.getRequest().getHeaders().getIfNoneMatch(), etag)){
+                response.setStatusCode(HttpStatus.NOT_MODIFIED);
+                response.getHeaders().setETag(etag);
+                if(cached.headers().getCacheControl() != null){
+                    response.getHeaders().setCacheControl(cached.headers().getCacheControl());
+                }
+                return response.setComplete();
+            }
+
+            response.setStatusCode(HttpStatus.OK);
+            response.getHeaders().putAll(cached.headers());
+            response.getHeaders().setContentLength(cached.body().length);
+            return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(cached.body())));
+        }
+
+        // If-None-Match uses the weak comparison, W/"x" matches "x"
+        private static boolean matches(List<String> ifNoneMatch, String etag){
+            String tag = etag.startsWith("W/") ? etag.substring(2) : etag;
+            for(String candidate : ifNoneMatch){
+                if(candidate.equals("*") || (candidate.startsWith("W/") ? candidate.substring(2) : candidate).equals(tag)){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String keyOf(ServerHttpRequest request){
+            HttpHeaders headers = request.getHeaders();
+            return request.getURI().getRawPath()
+                    + '?' + request.getURI().getRawQuery()
+                    + '|' + headers.getFirst(HttpHeaders.ACCEPT)
+                    + '|' + headers.getFirst(HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        private static HttpHeaders storedHeaders(HttpHeaders headers){
+            HttpHeaders stored = new HttpHeaders();
+            for(String name : STORED_HEADERS){
+                List<String> values = headers.get(name);
+                if(values != null){
+                    stored.put(name, List.copyOf(values));
+                }
+            }
+            return stored;
+        }
+    }
+
+    private record CachedResponse(HttpHeaders headers, byte[] body) {
+    }
+
+    public static class Config {
+
+        private Duration ttl = Duration.ofSeconds(30);
+        private DataSize maxSize = DataSize.ofMegabytes(64);
+        private DataSize maxEntrySize = DataSize.ofMegabytes(1);
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public DataSize getMaxEntrySize() {
+            return maxEntrySize;
+        }
+
+        public void setMaxEntrySize(DataSize maxEntrySize) {
+            this.maxEntrySize = maxEntrySize;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.pm.apigateway.filter;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.circuitbreaker.ReactiveCircuitBreakerFactory;
+import org.springframework.cloud.gateway.filter.factory.SpringCloudCircuitBreakerResilience4JFilterFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.DispatcherHandler;
+import reactor.core.publisher.Mono;
+
+// The CircuitBreaker filter, except that resume-without-error only applies to responses that failed because of
+// their status code (status-codes). Those are passed on to the client as the service sent them. The stock
+// filter also swallows every other error with that flag, so a response timeout or refused connection would
+// reach the client as an empty 200 instead of 504 / 502.
+//
+//   - name: UpstreamCircuitBreaker
+//     args:
+//       name: patient-service
+//       status-codes: 502,503,504
+//       resume-without-error: true
+@Component
+public class UpstreamCircuitBreakerGatewayFilterFactory extends SpringCloudCircuitBreakerResilience4JFilterFactory {
+
+    public UpstreamCircuitBreakerGatewayFilterFactory(
+            ReactiveCircuitBreakerFactory reactiveCircuitBreakerFactory,
+            ObjectProvider<DispatcherHandler> dispatcherHandlerProvider) {
+        super(reactiveCircuitBreakerFactory, dispatcherHandlerProvider);
+    }
+
+    @Override
+    public String name() {
+        return "UpstreamCircuitBreaker";
+    }
+
+    @Override
+    protected Mono<Void> handleErrorWithoutFallback(Throwable t, boolean resumeWithoutError) {
+        if(resumeWithoutError && t instanceof CircuitBreakerStatusCodeException){
+            return Mono.empty();
+        }
+        return super.handleErrorWithoutFallback(t, false);
+    }
+}
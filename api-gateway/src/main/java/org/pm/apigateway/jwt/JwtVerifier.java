@@ -0,0 +1,161 @@
+package org.pm.apigateway.jwt;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.LocatorAdapter;
+import io.jsonwebtoken.security.Keys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+// Verifies tokens in the gateway itself: RS/PS with jwt.public-key (X.509 PEM or base64) and HS256/384/512 with
+// the same HMAC key ring auth-service's JwtUtil signs with. jwt.secret is the kid "default" (also used for
+// tokens without a kid), jwt.key-ring.location optionally points to auth-service's key ring file
+// (key.<kid>=<base64 secret>), re-read when it changes. An HS token with a kid not in the ring throws
+// UnknownSigningKeyException, so a key that auth-service rotated to before the gateway loaded it falls back
+// to /validate instead of failing the signature check.
+//
+// Parsing is CPU only, so it is safe to call on the event loop. The parser is immutable and built once, it
+// looks the key up per token.
+@Component
+public class JwtVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(JwtVerifier.class);
+
+    public static final String DEFAULT_KID = "default";
+
+    private final Key defaultKey;
+    private final PublicKey publicKey;
+    private final Path keyRingLocation;
+    private final JwtParser parser;
+    private volatile Map<String, Key> hmacKeys;
+    private volatile long keyRingModified;
+
+    public JwtVerifier(
+            @Value("${jwt.secret:}") String secret,
+            @Value("${jwt.public-key:}") String publicKey,
+            @Value("${jwt.key-ring.location:}") String keyRingLocation,
+            @Value("${auth.jwt.clock-skew:30s}") Duration clockSkew) {
+        this.defaultKey = secret.isBlank() ? null : hmacKey(secret);
+        this.publicKey = publicKey.isBlank() ? null : parsePublicKey(publicKey);
+        this.keyRingLocation = keyRingLocation.isBlank() ? null : Path.of(keyRingLocation);
+        this.hmacKeys = defaultKey == null ? Map.of() : Map.of(DEFAULT_KID, defaultKey);
+        if(this.keyRingLocation != null){
+            reload();
+        }
+        this.parser = Jwts.parser()
+                .keyLocator(new LocatorAdapter<>() {
+                    @Override
+                    protected Key locate(JwsHeader header) {
+                        return keyFor(header.getAlgorithm(), header.getKeyId());
+                    }
+                })
+                .clockSkewSeconds(clockSkew.toSeconds())
+                .build();
+
+        if(!canVerifyLocally()){
+            log.warn("Neither jwt.secret, jwt.key-ring.location nor jwt.public-key is set, tokens cannot be verified in the gateway");
+        }
+    }
+
+    public boolean canVerifyLocally(){
+        return !hmacKeys.isEmpty() || publicKey != null;
+    }
+
+    // Throws UnknownSigningKeyException when no local key matches the token's algorithm and kid, and another
+    // JwtException when the token is malformed, badly signed or expired
+    public Claims verify(String token){
+        return parser.parseSignedClaims(token).getPayload();
+    }
+
+    @Scheduled(fixedDelayString = "${jwt.key-ring.reload-interval-ms:30000}")
+    public void reloadIfChanged(){
+        if(keyRingLocation == null){
+            return;
+        }
+        try{
+            if(Files.getLastModifiedTime(keyRingLocation).toMillis() != keyRingModified){
+                reload();
+            }
+        }catch (IOException e){
+            log.error("Cannot read JWT key ring {}, keeping the current keys: {}", keyRingLocation, e.getMessage());
+        }
+    }
+
+    // Only the keys are needed to verify, the file's active kid is auth-service's concern
+    public synchronized void reload(){
+        try{
+            long modified = Files.getLastModifiedTime(keyRingLocation).toMillis();
+            Properties properties = new Properties();
+            try(Reader reader = Files.newBufferedReader(keyRingLocation, StandardCharsets.UTF_8)){
+                properties.load(reader);
+            }
+
+            Map<String, Key> keys = new HashMap<>();
+            if(defaultKey != null){
+                keys.put(DEFAULT_KID, defaultKey);
+            }
+            for(String name : properties.stringPropertyNames()){
+                if(name.startsWith("key.")){
+                    keys.put(name.substring(4), hmacKey(properties.getProperty(name)));
+                }
+            }
+
+            hmacKeys = Map.copyOf(keys);
+            keyRingModified = modified;
+            log.info("Loaded JWT key ring with kids {}", keys.keySet());
+        }catch (IOException | RuntimeException e){
+            log.error("Cannot load JWT key ring {}, keeping the current keys: {}", keyRingLocation, e.getMessage());
+        }
+    }
+
+    private Key keyFor(String algorithm, String kid){
+        if(algorithm != null && algorithm.startsWith("HS")){
+            Key key = hmacKeys.get(kid == null ? DEFAULT_KID : kid);
+            if(key == null){
+                throw new UnknownSigningKeyException("No key configured for kid " + (kid == null ? DEFAULT_KID : kid));
+            }
+            return key;
+        }
+        if(algorithm != null && (algorithm.startsWith("RS") || algorithm.startsWith("PS")) && publicKey != null){
+            return publicKey;
+        }
+        throw new UnknownSigningKeyException("No key configured for tokens signed with " + algorithm);
+    }
+
+    private static Key hmacKey(String secret){
+        return Keys.hmacShaKeyFor(Base64.getDecoder().decode(secret.trim().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static PublicKey parsePublicKey(String value){
+        String base64 = value
+                .replace("-----BEGIN PUBLIC KEY-----", "")
+                .replace("-----END PUBLIC KEY-----", "")
+                .replaceAll("\\s", "");
+        try{
+            return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(base64)));
+        }catch (GeneralSecurityException | IllegalArgumentException e){
+            throw new IllegalStateException("jwt.public-key is not a valid X.509 RSA public key", e);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package org.pm.apigateway.jwt;
+
+import io.jsonwebtoken.JwtException;
+
+public class UnknownSigningKeyException extends JwtException {
+    public UnknownSigningKeyException(String message) {
+        super(message);
+    }
+}
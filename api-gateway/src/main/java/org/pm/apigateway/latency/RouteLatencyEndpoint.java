@@ -0,0 +1,31 @@
+package org.pm.apigateway.latency;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+// GET /actuator/routelatency[/{routeId}]: percentiles in milliseconds for the last window and since start,
+// plus the since-start histogram in HdrHistogram's compressed base64 form for offline analysis
+@Component
+@Endpoint(id = "routelatency")
+public class RouteLatencyEndpoint {
+
+    private final RouteLatencyRecorder routeLatencyRecorder;
+
+    public RouteLatencyEndpoint(RouteLatencyRecorder routeLatencyRecorder) {
+        this.routeLatencyRecorder = routeLatencyRecorder;
+    }
+
+    @ReadOperation
+    public Map<String, Object> routes() {
+        return routeLatencyRecorder.snapshot();
+    }
+
+    @ReadOperation
+    public Map<String, Object> route(@Selector String routeId) {
+        return routeLatencyRecorder.snapshot(routeId);
+    }
+}
@@ -0,0 +1,142 @@
+package org.pm.apigateway.latency;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-route HdrHistogram latency distributions, in microseconds with 3 significant digits. Two series per
+// route: total (from the moment the gateway matched the route until the response was written, cache hits
+// included) and upstream (from sending the request to the service until its response headers arrived).
+//
+// Recording goes through an HdrHistogram Recorder, which is wait-free for the request threads. Every
+// gateway.latency.window the interval is rolled over by whichever request notices first: it becomes the
+// "last window" and is added to the running total. The last window's upstream p95 is what Hedge waits for.
+@Component
+public class RouteLatencyRecorder {
+
+    private static final double[] PERCENTILES = {50, 90, 95, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50Ms", "p90Ms", "p95Ms", "p99Ms", "p999Ms"};
+
+    private final long windowNanos;
+    private final long minSamples;
+    private final Map<String, RouteLatency> routes = new ConcurrentHashMap<>();
+
+    public RouteLatencyRecorder(
+            @Value("${gateway.latency.window:60s}") Duration window,
+            @Value("${gateway.latency.min-samples:100}") long minSamples) {
+        this.windowNanos = window.toNanos();
+        this.minSamples = minSamples;
+    }
+
+    public void recordTotal(String routeId, long nanos){
+        route(routeId).total.record(nanos);
+    }
+
+    public void recordUpstream(String routeId, long nanos){
+        route(routeId).upstream.record(nanos);
+    }
+
+    // p95 of the upstream latency in the last window, -1 while that window had fewer than min-samples calls
+    public long upstreamP95Nanos(String routeId){
+        RouteLatency latency = routes.get(routeId);
+        return latency == null ? -1 : latency.upstream.p95Nanos();
+    }
+
+    public Map<String, Object> snapshot(){
+        Map<String, Object> snapshot = new TreeMap<>();
+        routes.forEach((routeId, latency) -> snapshot.put(routeId, latency.snapshot()));
+        return snapshot;
+    }
+
+    public Map<String, Object> snapshot(String routeId){
+        RouteLatency latency = routes.get(routeId);
+        return latency == null ? null : latency.snapshot();
+    }
+
+    private RouteLatency route(String routeId){
+        RouteLatency latency = routes.get(routeId);
+        return latency != null ? latency : routes.computeIfAbsent(routeId, id -> new RouteLatency());
+    }
+
+    private class RouteLatency {
+        final Series total = new Series();
+        final Series upstream = new Series();
+
+        Map<String, Object> snapshot(){
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("total", total.snapshot());
+            snapshot.put("upstream", upstream.snapshot());
+            return snapshot;
+        }
+    }
+
+    private class Series {
+        private final Recorder recorder = new Recorder(3);
+        private final Histogram sinceStart = new Histogram(3);
+        private final AtomicLong nextRollover = new AtomicLong(System.nanoTime() + windowNanos);
+        private Histogram interval;
+        private volatile Histogram lastWindow = new Histogram(3);
+        private volatile long p95Nanos = -1;
+
+        void record(long nanos){
+            recorder.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+            rollOverIfDue();
+        }
+
+        long p95Nanos(){
+            rollOverIfDue();
+            return p95Nanos;
+        }
+
+        private void rollOverIfDue(){
+            long now = System.nanoTime();
+            long due = nextRollover.get();
+            if(now - due >= 0 && nextRollover.compareAndSet(due, now + windowNanos)){
+                rollOver();
+            }
+        }
+
+        private synchronized void rollOver(){
+            interval = recorder.getIntervalHistogram(interval);
+            sinceStart.add(interval);
+            lastWindow = interval.copy();
+            p95Nanos = lastWindow.getTotalCount() >= minSamples
+                    ? TimeUnit.MICROSECONDS.toNanos(lastWindow.getValueAtPercentile(95))
+                    : -1;
+        }
+
+        // Both histograms are as of the last rollover, so a snapshot is at most one window behind
+        synchronized Map<String, Object> snapshot(){
+            rollOverIfDue();
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("lastWindow", summary(lastWindow));
+            snapshot.put("sinceStart", summary(sinceStart));
+            ByteBuffer encoded = ByteBuffer.allocate(sinceStart.getNeededByteBufferCapacity());
+            int length = sinceStart.encodeIntoCompressedByteBuffer(encoded);
+            snapshot.put("histogram", Base64.getEncoder().encodeToString(Arrays.copyOf(encoded.array(), length)));
+            return snapshot;
+        }
+    }
+
+    private static Map<String, Object> summary(Histogram histogram){
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.getTotalCount());
+        for(int i = 0; i < PERCENTILES.length; i++){
+            summary.put(PERCENTILE_NAMES[i], histogram.getValueAtPercentile(PERCENTILES[i]) / 1000.0);
+        }
+        summary.put("maxMs", histogram.getMaxValue() / 1000.0);
+        return summary;
+    }
+}
@@ -0,0 +1,47 @@
+package org.pm.apigateway.latency;
+
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.pm.apigateway.routing.UpstreamRoutingFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
+import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.isAlreadyRouted;
+
+// Wraps UpstreamRoutingFilter, which completes once the service's response headers have arrived. Requests
+// another filter already answered (a hedged GET) are recorded by that filter.
+@Component
+public class UpstreamLatencyFilter implements GlobalFilter, Ordered {
+
+    public static final int ORDER = UpstreamRoutingFilter.ORDER - 1;
+
+    private final RouteLatencyRecorder routeLatencyRecorder;
+
+    public UpstreamLatencyFilter(RouteLatencyRecorder routeLatencyRecorder) {
+        this.routeLatencyRecorder = routeLatencyRecorder;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Route route = exchange.getAttribute(GATEWAY_ROUTE_ATTR);
+        if(route == null || isAlreadyRouted(exchange)){
+            return chain.filter(exchange);
+        }
+        long start = System.nanoTime();
+        return chain.filter(exchange).doFinally(signal -> {
+            if(signal != SignalType.CANCEL){
+                routeLatencyRecorder.recordUpstream(route.getId(), System.nanoTime() - start);
+            }
+        });
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+}
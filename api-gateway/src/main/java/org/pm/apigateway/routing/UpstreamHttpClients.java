@@ -0,0 +1,166 @@
+package org.pm.apigateway.routing;
+
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.cloud.gateway.config.HttpClientCustomizer;
+import org.springframework.cloud.gateway.config.HttpClientFactory;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.cloud.gateway.config.HttpClientSslConfigurer;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.RouteMetadataUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// HttpClients for the services behind the gateway. Routes without pool or protocol metadata use the gateway's
+// HttpClient and its shared pool (spring.cloud.gateway.server.webflux.httpclient.*). A route with pool metadata
+// gets a connection pool of its own, so a burst on one service cannot queue up requests for another, and with
+// protocol: h2c requests go to the service as HTTP/2 without TLS (prior knowledge, the service needs
+// server.http2.enabled), many of them multiplexed over each connection. The metadata is read the first time
+// a route is used.
+//
+//   metadata:
+//     connect-timeout: 1000
+//     protocol: h2c                      # or http11
+//     pool:
+//       max-connections: 100             # per service address, with h2c each one carries many requests
+//       pending-acquire-max-count: 1000  # requests waiting for a connection, beyond that they fail at once
+//       pending-acquire-timeout: 2s
+//       max-idle-time: 15s
+//       max-life-time: 5m
+//       eviction-interval: 10s
+//
+// The same settings under a property prefix configure the gateway's own calls (see fromProperties).
+@Component
+public class UpstreamHttpClients {
+
+    public enum Protocol { HTTP11, H2C }
+
+    private final HttpClient gatewayHttpClient;
+    private final HttpClientProperties properties;
+    private final ServerProperties serverProperties;
+    private final HttpClientSslConfigurer sslConfigurer;
+    private final List<HttpClientCustomizer> customizers;
+    private final Binder binder;
+    private final Map<String, HttpClient> routeClients = new ConcurrentHashMap<>();
+    private final List<ConnectionProvider> connectionProviders = new CopyOnWriteArrayList<>();
+
+    public UpstreamHttpClients(
+            HttpClient gatewayHttpClient,
+            HttpClientProperties properties,
+            ServerProperties serverProperties,
+            HttpClientSslConfigurer sslConfigurer,
+            List<HttpClientCustomizer> customizers,
+            Environment environment) {
+        this.gatewayHttpClient = gatewayHttpClient;
+        this.properties = properties;
+        this.serverProperties = serverProperties;
+        this.sslConfigurer = sslConfigurer;
+        this.customizers = customizers;
+        this.binder = Binder.get(environment);
+    }
+
+    public HttpClient forRoute(Route route){
+        HttpClient client = routeClients.get(route.getId());
+        return client != null ? client : routeClients.computeIfAbsent(route.getId(), id -> create(id, route.getMetadata()));
+    }
+
+    // connect-timeout, protocol and pool.* under the given prefix, e.g. auth.service.pool.max-connections
+    public HttpClient fromProperties(String name, String prefix){
+        return create(name, binder.bind(prefix, Bindable.mapOf(String.class, Object.class)).orElse(Map.of()));
+    }
+
+    private HttpClient create(String name, Map<String, Object> settings){
+        HttpClient client = gatewayHttpClient;
+        if(settings.get("pool") instanceof Map<?, ?> pool){
+            ConnectionProvider connectionProvider = connectionProvider(name, pool);
+            connectionProviders.add(connectionProvider);
+            client = new PoolHttpClientFactory(connectionProvider).create();
+        }
+
+        Object protocol = settings.get("protocol");
+        if(protocol != null){
+            client = Protocol.valueOf(protocol.toString().toUpperCase()) == Protocol.H2C
+                    ? client.protocol(HttpProtocol.H2C)
+                    : client.protocol(HttpProtocol.HTTP11);
+        }
+
+        Object connectTimeout = settings.get(RouteMetadataUtils.CONNECT_TIMEOUT_ATTR);
+        if(connectTimeout == null){
+            connectTimeout = properties.getConnectTimeout();
+        }
+        if(connectTimeout != null){
+            client = client.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Integer.parseInt(connectTimeout.toString()));
+        }
+        return client;
+    }
+
+    private ConnectionProvider connectionProvider(String name, Map<?, ?> pool){
+        int maxConnections = intSetting(pool, "max-connections", ConnectionProvider.DEFAULT_POOL_MAX_CONNECTIONS);
+        ConnectionProvider.Builder builder = ConnectionProvider.builder(name)
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(intSetting(pool, "pending-acquire-max-count", 2 * maxConnections))
+                .pendingAcquireTimeout(durationSetting(pool, "pending-acquire-timeout",
+                        Duration.ofMillis(ConnectionProvider.DEFAULT_POOL_ACQUIRE_TIMEOUT)))
+                .evictInBackground(durationSetting(pool, "eviction-interval", Duration.ZERO))
+                .metrics(properties.getPool().isMetrics());
+        Duration maxIdleTime = durationSetting(pool, "max-idle-time", null);
+        if(maxIdleTime != null){
+            builder.maxIdleTime(maxIdleTime);
+        }
+        Duration maxLifeTime = durationSetting(pool, "max-life-time", null);
+        if(maxLifeTime != null){
+            builder.maxLifeTime(maxLifeTime);
+        }
+        return builder.build();
+    }
+
+    private static int intSetting(Map<?, ?> settings, String key, int defaultValue){
+        Object value = settings.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value.toString());
+    }
+
+    // 2s, 500ms or plain milliseconds
+    private static Duration durationSetting(Map<?, ?> settings, String key, Duration defaultValue){
+        Object value = settings.get(key);
+        return value == null ? defaultValue : DurationStyle.detectAndParse(value.toString());
+    }
+
+    @PreDestroy
+    public void close(){
+        connectionProviders.forEach(ConnectionProvider::dispose);
+    }
+
+    // Everything else (decoder limits, SSL, proxy, compression, customizers) as configured for the gateway
+    private class PoolHttpClientFactory extends HttpClientFactory {
+
+        private final ConnectionProvider connectionProvider;
+
+        PoolHttpClientFactory(ConnectionProvider connectionProvider) {
+            super(UpstreamHttpClients.this.properties, UpstreamHttpClients.this.serverProperties,
+                    UpstreamHttpClients.this.sslConfigurer, UpstreamHttpClients.this.customizers);
+            this.connectionProvider = connectionProvider;
+        }
+
+        HttpClient create(){
+            return createInstance();
+        }
+
+        @Override
+        protected ConnectionProvider buildConnectionProvider(HttpClientProperties properties) {
+            return connectionProvider;
+        }
+    }
+}
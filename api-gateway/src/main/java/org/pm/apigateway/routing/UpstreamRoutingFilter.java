@@ -0,0 +1,65 @@
+package org.pm.apigateway.routing;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.gateway.config.HttpClientProperties;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.NettyRoutingFilter;
+import org.springframework.cloud.gateway.filter.headers.HttpHeadersFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+import java.util.List;
+
+// NettyRoutingFilter with the route's own HttpClient from UpstreamHttpClients. It runs right before the stock
+// routing filter, which then finds the request already routed and passes it on. The stock filter cannot be
+// switched off on its own, its property also switches off NettyWriteResponseFilter.
+//
+// A request that finds the route's pool exhausted (pending-acquire-max-count or pending-acquire-timeout) is
+// answered with 503 instead of 500.
+@Component
+public class UpstreamRoutingFilter extends NettyRoutingFilter {
+
+    public static final int ORDER = NettyRoutingFilter.ORDER - 1;
+
+    private final UpstreamHttpClients upstreamHttpClients;
+
+    public UpstreamRoutingFilter(
+            HttpClient httpClient,
+            ObjectProvider<List<HttpHeadersFilter>> headersFilters,
+            HttpClientProperties properties,
+            UpstreamHttpClients upstreamHttpClients) {
+        super(httpClient, headersFilters, properties);
+        this.upstreamHttpClients = upstreamHttpClients;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        return super.filter(exchange, chain).onErrorMap(UpstreamRoutingFilter::mapPoolExhausted);
+    }
+
+    // reactor-netty's pool exceptions live in a shaded package, so they are recognised by name
+    public static Throwable mapPoolExhausted(Throwable error){
+        for(Throwable cause = error; cause != null; cause = cause.getCause()){
+            String name = cause.getClass().getSimpleName();
+            if(name.equals("PoolAcquirePendingLimitException") || name.equals("PoolAcquireTimeoutException")){
+                return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "No connection to the service available", error);
+            }
+        }
+        return error;
+    }
+
+    @Override
+    protected HttpClient getHttpClient(Route route, ServerWebExchange exchange) {
+        return upstreamHttpClients.forRoute(route);
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+}
@@ -0,0 +1,107 @@
+package org.pm.apigateway.jwt;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JwtVerifierTest {
+
+    private static final String SECRET = secret(1);
+    private static final String ROTATED_SECRET = secret(2);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void verifiesTokensSignedWithTheDefaultSecret() {
+        JwtVerifier verifier = new JwtVerifier(SECRET, "", "", Duration.ofSeconds(30));
+
+        assertEquals("jane@example.com", verifier.verify(token(null, SECRET)).getSubject());
+        assertEquals("jane@example.com", verifier.verify(token(JwtVerifier.DEFAULT_KID, SECRET)).getSubject());
+    }
+
+    @Test
+    void unknownKidFallsBackInsteadOfFailingTheSignature() {
+        JwtVerifier verifier = new JwtVerifier(SECRET, "", "", Duration.ofSeconds(30));
+
+        assertThrows(UnknownSigningKeyException.class, () -> verifier.verify(token("2025-10", ROTATED_SECRET)));
+    }
+
+    @Test
+    void verifiesTokensSignedWithARotatedKeyOnceTheRingIsReloaded() throws IOException {
+        Path keyRing = directory.resolve("jwt-keys.properties");
+        Files.writeString(keyRing, "active=default\n");
+        JwtVerifier verifier = new JwtVerifier(SECRET, "", keyRing.toString(), Duration.ofSeconds(30));
+        String rotated = token("2025-10", ROTATED_SECRET);
+        assertThrows(UnknownSigningKeyException.class, () -> verifier.verify(rotated));
+
+        // auth-service starts signing with the new kid, the gateway picks the file up on its next check
+        Files.writeString(keyRing, "active=2025-10\nkey.2025-10=" + ROTATED_SECRET + "\n");
+        Files.setLastModifiedTime(keyRing, FileTime.fromMillis(System.currentTimeMillis() + 1_000));
+        verifier.reloadIfChanged();
+
+        assertEquals("jane@example.com", verifier.verify(rotated).getSubject());
+        // Sessions signed before the rotation stay valid
+        assertEquals("jane@example.com", verifier.verify(token(null, SECRET)).getSubject());
+    }
+
+    @Test
+    void rejectsAKnownKidWithTheWrongSignature() throws IOException {
+        Path keyRing = directory.resolve("jwt-keys.properties");
+        Files.writeString(keyRing, "key.2025-10=" + ROTATED_SECRET + "\n");
+        JwtVerifier verifier = new JwtVerifier(SECRET, "", keyRing.toString(), Duration.ofSeconds(30));
+
+        assertThrows(SignatureException.class, () -> verifier.verify(token("2025-10", SECRET)));
+    }
+
+    @Test
+    void keepsTheCurrentKeysWhenTheRingCannotBeRead() throws IOException {
+        Path keyRing = directory.resolve("jwt-keys.properties");
+        Files.writeString(keyRing, "key.2025-10=" + ROTATED_SECRET + "\n");
+        JwtVerifier verifier = new JwtVerifier(SECRET, "", keyRing.toString(), Duration.ofSeconds(30));
+
+        Files.delete(keyRing);
+        verifier.reloadIfChanged();
+
+        assertEquals("jane@example.com", verifier.verify(token("2025-10", ROTATED_SECRET)).getSubject());
+    }
+
+    @Test
+    void cannotVerifyLocallyWithoutKeys() {
+        assertFalse(new JwtVerifier("", "", "", Duration.ofSeconds(30)).canVerifyLocally());
+    }
+
+    private static String token(String kid, String secret) {
+        SecretKey key = Keys.hmacShaKeyFor(Base64.getDecoder().decode(secret));
+        return Jwts.builder()
+                .header().keyId(kid).and()
+                .subject("jane@example.com")
+                .claim("role", "ADMIN")
+                .expiration(new Date(System.currentTimeMillis() + 60_000))
+                .signWith(key)
+                .compact();
+    }
+
+    private static String secret(int seed) {
+        byte[] bytes = new byte[32];
+        for(int i = 0; i < bytes.length; i++){
+            bytes[i] = (byte) (seed * 31 + i);
+        }
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+}
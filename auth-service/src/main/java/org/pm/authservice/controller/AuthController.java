@@ -4,6 +4,7 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.pm.authservice.dto.LoginRequestDto;
 import org.pm.authservice.dto.LoginResponseDto;
+import org.pm.authservice.dto.TokenClaimsDto;
 import org.pm.authservice.service.AuthService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,15 +38,16 @@ public class AuthController {
         return ResponseEntity.ok(new LoginResponseDto(token));
     }
 
-    @Operation(summary = "Endpoint to validate the token")
+    @Operation(summary = "Endpoint to validate the token, returns its subject and role")
     @GetMapping("/validate")
-    public ResponseEntity<String> validateToken(@RequestHeader("Authorization") String authHeader){
+    public ResponseEntity<TokenClaimsDto> validateToken(@RequestHeader("Authorization") String authHeader){
         //Authorization:Bearer <token>
         if(authHeader == null || !authHeader.startsWith("Bearer ")){
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Unauthorized user found!");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
 
-        return authService.validateToken(authHeader.substring(7)) ?
-         ResponseEntity.ok("Authorized token!") : ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Unauthorized user found!");
+        return authService.validateToken(authHeader.substring(7))
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.UNAUTHORIZED).build());
     }
 }
@@ -0,0 +1,21 @@
+package org.pm.authservice.dto;
+
+public class TokenClaimsDto {
+
+    private final String subject;
+    private final String role;
+
+    public TokenClaimsDto(String subject, String role){
+        this.subject=subject;
+        this.role=role;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+}
@@ -0,0 +1,7 @@
+package org.pm.authservice.exception;
+
+public class LoginCapacityExceededException extends RuntimeException {
+    public LoginCapacityExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,27 @@
+package org.pm.authservice.model;
+
+// The fields a login needs, loaded by UserRespository.findPrincipalByEmail without hydrating a User entity
+public class UserPrincipal {
+
+    private final String email;
+    private final String password;
+    private final String role;
+
+    public UserPrincipal(String email, String password, String role){
+        this.email=email;
+        this.password=password;
+        this.role=role;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public String getRole() {
+        return role;
+    }
+}
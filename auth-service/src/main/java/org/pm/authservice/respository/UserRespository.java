@@ -1,7 +1,11 @@
 package org.pm.authservice.respository;
 
 import org.pm.authservice.model.User;
+import org.pm.authservice.model.UserPrincipal;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -11,4 +15,15 @@ import java.util.UUID;
 public interface UserRespository extends JpaRepository<User, UUID> {
 
     Optional<User> findByEmail(String email);
+
+    @Query("select new org.pm.authservice.model.UserPrincipal(u.email, u.password, u.role) from User u where u.email = :email")
+    Optional<UserPrincipal> findPrincipalByEmail(@Param("email") String email);
+
+    @Modifying
+    @Query("update User u set u.password = :password where u.email = :email")
+    int updatePassword(@Param("email") String email, @Param("password") String password);
+
+    @Modifying
+    @Query("update User u set u.role = :role where u.email = :email")
+    int updateRole(@Param("email") String email, @Param("role") String role);
 }
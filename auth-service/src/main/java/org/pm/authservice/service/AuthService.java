@@ -1,10 +1,10 @@
 package org.pm.authservice.service;
 
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
 import org.pm.authservice.dto.LoginRequestDto;
-import org.pm.authservice.model.User;
+import org.pm.authservice.dto.TokenClaimsDto;
 import org.pm.authservice.utils.JwtUtil;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
@@ -13,30 +13,30 @@ import java.util.Optional;
 public class AuthService {
 
     private final UserService userService;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHashingPool passwordHashingPool;
     private final JwtUtil jwtUtil;
 
-    public AuthService(UserService userService, PasswordEncoder passwordEncoder, JwtUtil jwtUtil) {
+    public AuthService(UserService userService, PasswordHashingPool passwordHashingPool, JwtUtil jwtUtil) {
         this.userService = userService;
-        this.passwordEncoder = passwordEncoder;
+        this.passwordHashingPool = passwordHashingPool;
         this.jwtUtil = jwtUtil;
     }
 
     public Optional<String> authenticate(LoginRequestDto loginRequestDto){
         Optional<String> token = userService
                 .findByEmail(loginRequestDto.getEmail())
-                .filter(u -> passwordEncoder.matches(loginRequestDto.getPassword(), u.getPassword()))
+                .filter(u -> passwordHashingPool.matches(u.getEmail(), loginRequestDto.getPassword(), u.getPassword()))
                 .map(u -> jwtUtil.generateToken(u.getEmail(), u.getRole()));
 
         return token;
     }
 
-    public Boolean validateToken(String token){
+    public Optional<TokenClaimsDto> validateToken(String token){
         try {
-            jwtUtil.verifyToken(token);
-            return true;
+            Claims claims = jwtUtil.verifyToken(token);
+            return Optional.of(new TokenClaimsDto(claims.getSubject(), claims.get("role", String.class)));
         }catch (JwtException e){
-            return false;
+            return Optional.empty();
         }
     }
 }
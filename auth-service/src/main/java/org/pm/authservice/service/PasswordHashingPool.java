@@ -0,0 +1,127 @@
+package org.pm.authservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.pm.authservice.exception.LoginCapacityExceededException;
+import org.pm.authservice.exception.LoginThrottledException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Runs password checks on a fixed pool of platform threads sized to the cores, so a login storm can use
+// at most that much CPU and /validate keeps running. The queue in front of it is bounded: when it is full
+// the login is refused straight away (503) rather than waiting behind hashes that will finish too late.
+// Each email may only have a few checks in flight (429 beyond that), so one account cannot fill the queue.
+@Component
+public class PasswordHashingPool {
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final int perEmailConcurrency;
+    private final Map<String, Integer> inFlightByEmail = new ConcurrentHashMap<>();
+
+    private final Timer queueTimer;
+    private final Timer hashTimer;
+    private final Counter queueFullRejections;
+    private final Counter perEmailRejections;
+
+    public PasswordHashingPool(
+            PasswordEncoder passwordEncoder,
+            @Value("${auth.login.hashing.threads:0}") int threads,
+            @Value("${auth.login.hashing.queue-capacity:64}") int queueCapacity,
+            @Value("${auth.login.hashing.per-email-concurrency:2}") int perEmailConcurrency,
+            MeterRegistry meterRegistry) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.passwordEncoder = passwordEncoder;
+        this.perEmailConcurrency = perEmailConcurrency;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("bcrypt-", 0).daemon().factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.queueTimer = Timer.builder("auth.login.hash.queue")
+                .description("Time a password check waited for a hashing thread")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.hashTimer = Timer.builder("auth.login.hash.time")
+                .description("Time spent in BCrypt matching")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.queueFullRejections = Counter.builder("auth.login.hash.rejected")
+                .tag("reason", "queue_full").register(meterRegistry);
+        this.perEmailRejections = Counter.builder("auth.login.hash.rejected")
+                .tag("reason", "per_email_limit").register(meterRegistry);
+        Gauge.builder("auth.login.hash.queue.depth", executor, pool -> pool.getQueue().size())
+                .description("Password checks waiting for a hashing thread")
+                .register(meterRegistry);
+        Gauge.builder("auth.login.hash.active", executor, ThreadPoolExecutor::getActiveCount)
+                .register(meterRegistry);
+    }
+
+    public boolean matches(String email, String rawPassword, String encodedPassword){
+        if(!tryAcquire(email)){
+            perEmailRejections.increment();
+            throw new LoginThrottledException("Too many concurrent logins for this account, retry shortly");
+        }
+
+        try{
+            long submitted = System.nanoTime();
+            Future<Boolean> result;
+            try{
+                result = executor.submit(() -> {
+                    queueTimer.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+                    return hashTimer.record(() -> passwordEncoder.matches(rawPassword, encodedPassword));
+                });
+            }catch (RejectedExecutionException e){
+                queueFullRejections.increment();
+                throw new LoginCapacityExceededException("Too many logins in progress, retry shortly");
+            }
+
+            try{
+                return result.get();
+            }catch (InterruptedException e){
+                result.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new LoginCapacityExceededException("Login was interrupted");
+            }catch (ExecutionException e){
+                throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+            }
+        }finally {
+            release(email);
+        }
+    }
+
+    private boolean tryAcquire(String email){
+        boolean[] acquired = {false};
+        inFlightByEmail.compute(email, (key, inFlight) -> {
+            int current = inFlight == null ? 0 : inFlight;
+            if(current >= perEmailConcurrency){
+                return inFlight;
+            }
+            acquired[0] = true;
+            return current + 1;
+        });
+        return acquired[0];
+    }
+
+    private void release(String email){
+        inFlightByEmail.computeIfPresent(email, (key, inFlight) -> inFlight == 1 ? null : inFlight - 1);
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        executor.shutdownNow();
+    }
+}
@@ -1,22 +1,77 @@
 package org.pm.authservice.service;
 
 
-import org.pm.authservice.model.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.pm.authservice.model.UserPrincipal;
 import org.pm.authservice.respository.UserRespository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
 import java.util.Optional;
 
+// Login principals are cached by email for auth.user-cache.ttl, at most auth.user-cache.max-size of them.
+// Unknown emails are not cached, so guessing addresses cannot push real users out. Password and role
+// changes have to go through this service: they evict the entry after commit, so the next login reads
+// the new values. Another instance keeps its copy until the ttl runs out, which bounds how stale it gets.
 @Service
 public class UserService {
 
     private final UserRespository userRespository;
+    private final Cache<String, UserPrincipal> principals;
 
-    public UserService(UserRespository userRespository) {
+    public UserService(
+            UserRespository userRespository,
+            @Value("${auth.user-cache.max-size:10000}") long maxSize,
+            @Value("${auth.user-cache.ttl:5m}") Duration ttl,
+            MeterRegistry meterRegistry) {
         this.userRespository = userRespository;
+        this.principals = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, principals, "auth.user.principals");
     }
 
-    public Optional<User> findByEmail(String email){
-        return userRespository.findByEmail(email);
+    public Optional<UserPrincipal> findByEmail(String email){
+        return Optional.ofNullable(principals.get(email, key -> userRespository.findPrincipalByEmail(key).orElse(null)));
+    }
+
+    @Transactional
+    public boolean updatePassword(String email, String encodedPassword){
+        boolean updated = userRespository.updatePassword(email, encodedPassword) > 0;
+        invalidate(email);
+        return updated;
+    }
+
+    @Transactional
+    public boolean updateRole(String email, String role){
+        boolean updated = userRespository.updateRole(email, role) > 0;
+        invalidate(email);
+        return updated;
+    }
+
+    // Evicts now and again after commit, so a login that reloads the old row in between is not kept
+    public void invalidate(String email){
+        principals.invalidate(email);
+        if(TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    principals.invalidate(email);
+                }
+            });
+        }
+    }
+
+    public void invalidateAll(){
+        principals.invalidateAll();
     }
 }
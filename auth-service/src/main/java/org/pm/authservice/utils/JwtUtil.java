@@ -1,55 +1,170 @@
 package org.pm.authservice.utils;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
 import io.jsonwebtoken.security.SignatureException;
-import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
-import java.security.Key;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Base64;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
+// Signs and verifies tokens with a key ring. jwt.secret is always in the ring under the kid "default" and
+// verifies tokens issued without a kid. jwt.key-ring.location optionally points to a properties file with
+// more keys and the kid new tokens are signed with:
+//
+//   active=2025-10
+//   key.2025-10=<base64 secret>
+//   key.2025-07=<base64 secret>
+//
+// The file is re-read when it changes, so a key can be added, made active and later retired without a
+// restart or invalidating the sessions signed with the previous key. Every key has its own pre-built parser.
 @Component
 public class JwtUtil {
 
-    private final Key secretKey;
+    private static final Logger log = LoggerFactory.getLogger(JwtUtil.class);
 
-    public JwtUtil(@Value("${jwt.secret}") String secret){
-        byte[]  keyBytes = Base64.getDecoder().decode(secret.getBytes(StandardCharsets.UTF_8));
-        this.secretKey = Keys.hmacShaKeyFor(keyBytes);
+    public static final String DEFAULT_KID = "default";
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    // Distinct token headers are few (one per kid and algorithm), never cache more than this
+    private static final int MAX_CACHED_HEADERS = 64;
+
+    private final RingKey defaultKey;
+    private final Path keyRingLocation;
+    private final Map<String, String> kidsByHeader = new ConcurrentHashMap<>();
+    private volatile KeyRing keyRing;
+    private volatile long keyRingModified;
+
+    public JwtUtil(
+            @Value("${jwt.secret}") String secret,
+            @Value("${jwt.key-ring.location:}") String keyRingLocation){
+        this.defaultKey = RingKey.of(DEFAULT_KID, secret);
+        this.keyRingLocation = keyRingLocation.isBlank() ? null : Path.of(keyRingLocation);
+        this.keyRing = new KeyRing(Map.of(DEFAULT_KID, defaultKey), defaultKey);
+        if(this.keyRingLocation != null){
+            reload();
+        }
     }
 
-    @PostConstruct
-    public void printSecret() {
-        System.out.println("Decoded secret key: " + secretKey);
+    @Scheduled(fixedDelayString = "${jwt.key-ring.reload-interval-ms:30000}")
+    public void reloadIfChanged(){
+        if(keyRingLocation == null){
+            return;
+        }
+        try{
+            if(Files.getLastModifiedTime(keyRingLocation).toMillis() != keyRingModified){
+                reload();
+            }
+        }catch (IOException e){
+            log.error("Cannot read JWT key ring {}, keeping the current keys: {}", keyRingLocation, e.getMessage());
+        }
     }
 
+    public synchronized void reload(){
+        try{
+            long modified = Files.getLastModifiedTime(keyRingLocation).toMillis();
+            Properties properties = new Properties();
+            try(Reader reader = Files.newBufferedReader(keyRingLocation, StandardCharsets.UTF_8)){
+                properties.load(reader);
+            }
+
+            Map<String, RingKey> keys = new HashMap<>();
+            keys.put(DEFAULT_KID, defaultKey);
+            for(String name : properties.stringPropertyNames()){
+                if(name.startsWith("key.")){
+                    String kid = name.substring(4);
+                    keys.put(kid, RingKey.of(kid, properties.getProperty(name)));
+                }
+            }
+            String activeKid = properties.getProperty("active", DEFAULT_KID);
+            RingKey active = keys.get(activeKid);
+            if(active == null){
+                throw new IllegalArgumentException("active key " + activeKid + " is not in the ring");
+            }
+
+            keyRing = new KeyRing(Map.copyOf(keys), active);
+            keyRingModified = modified;
+            log.info("Loaded JWT key ring with kids {}, signing with {}", keys.keySet(), activeKid);
+        }catch (IOException | RuntimeException e){
+            log.error("Cannot load JWT key ring {}, keeping the current keys: {}", keyRingLocation, e.getMessage());
+        }
+    }
 
     public String generateToken(String email, String role){
+        RingKey active = keyRing.active();
         return Jwts.builder()
+                .header().keyId(active.kid()).and()
                 .subject(email)
                 .claim("role", role)
                 .issuedAt(new Date())
                 .expiration(new Date(System.currentTimeMillis()+1000*60*60*10)) //10 hours
-                .signWith(secretKey)
+                .signWith(active.key())
                 .compact();
     }
 
-    public void verifyToken(String token){
+    public Claims verifyToken(String token){
         try{
-            Jwts.parser()
-                    .verifyWith((SecretKey) secretKey)
-                    .build()
-                    .parseSignedClaims(token);
+            RingKey key = keyRing.keys().get(kidOf(token));
+            if(key == null){
+                throw new JwtException("Unknown signing key");
+            }
+            return key.parser().parseSignedClaims(token).getPayload();
         }catch (SignatureException e){
             throw new JwtException("Invalid token signature");
-        }catch (JwtException e){
+        }catch (JwtException | IllegalArgumentException e){
+            throw new JwtException("Invalid token");
+        }
+    }
+
+    // The kid is read from the header before verification to pick the parser, the parser then checks it all
+    private String kidOf(String token){
+        int end = token.indexOf('.');
+        if(end <= 0){
+            throw new JwtException("Invalid token");
+        }
+        String header = token.substring(0, end);
+        String kid = kidsByHeader.get(header);
+        if(kid != null){
+            return kid;
+        }
+
+        try{
+            JsonNode kidNode = objectMapper.readTree(Base64.getUrlDecoder().decode(header)).get("kid");
+            kid = kidNode == null ? DEFAULT_KID : kidNode.asText();
+        }catch (IOException | IllegalArgumentException e){
             throw new JwtException("Invalid token");
         }
+        if(keyRing.keys().containsKey(kid) && kidsByHeader.size() < MAX_CACHED_HEADERS){
+            kidsByHeader.put(header, kid);
+        }
+        return kid;
+    }
+
+    private record KeyRing(Map<String, RingKey> keys, RingKey active) {
+    }
+
+    private record RingKey(String kid, SecretKey key, JwtParser parser) {
+        static RingKey of(String kid, String secret){
+            SecretKey key = Keys.hmacShaKeyFor(Base64.getDecoder().decode(secret.trim().getBytes(StandardCharsets.UTF_8)));
+            return new RingKey(kid, key, Jwts.parser().verifyWith(key).build());
+        }
     }
 }
@@ -0,0 +1,94 @@
+package org.pm.authservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pm.authservice.model.UserPrincipal;
+import org.pm.authservice.respository.UserRespository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserServiceTest {
+
+    private static final String EMAIL = "jane@example.com";
+
+    private UserRespository userRespository;
+    private UserService userService;
+
+    @BeforeEach
+    void setUp() {
+        userRespository = mock(UserRespository.class);
+        userService = new UserService(userRespository, 100, Duration.ofMinutes(5), new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if(TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void cachesThePrincipalBetweenLogins() {
+        when(userRespository.findPrincipalByEmail(EMAIL)).thenReturn(principal("old-hash", "USER"));
+
+        userService.findByEmail(EMAIL);
+        userService.findByEmail(EMAIL);
+
+        verify(userRespository, times(1)).findPrincipalByEmail(EMAIL);
+    }
+
+    @Test
+    void loginAfterUpdatePasswordReadsTheNewHash() {
+        when(userRespository.findPrincipalByEmail(EMAIL)).thenReturn(principal("old-hash", "USER"));
+        assertEquals("old-hash", userService.findByEmail(EMAIL).orElseThrow().getPassword());
+
+        when(userRespository.updatePassword(EMAIL, "new-hash")).thenReturn(1);
+        when(userRespository.findPrincipalByEmail(EMAIL)).thenReturn(principal("new-hash", "USER"));
+        userService.updatePassword(EMAIL, "new-hash");
+
+        assertEquals("new-hash", userService.findByEmail(EMAIL).orElseThrow().getPassword());
+    }
+
+    @Test
+    void loginDuringTheUpdateTransactionIsEvictedAfterCommit() {
+        when(userRespository.findPrincipalByEmail(EMAIL)).thenReturn(principal("old-hash", "ADMIN"));
+        userService.findByEmail(EMAIL);
+
+        TransactionSynchronizationManager.initSynchronization();
+        when(userRespository.updateRole(EMAIL, "USER")).thenReturn(1);
+        userService.updateRole(EMAIL, "USER");
+        // A login before the commit still sees the old row and caches it again
+        assertEquals("ADMIN", userService.findByEmail(EMAIL).orElseThrow().getRole());
+
+        when(userRespository.findPrincipalByEmail(EMAIL)).thenReturn(principal("old-hash", "USER"));
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+        assertEquals("USER", userService.findByEmail(EMAIL).orElseThrow().getRole());
+    }
+
+    @Test
+    void invalidateAllDropsEveryCachedPrincipal() {
+        when(userRespository.findPrincipalByEmail(EMAIL)).thenReturn(principal("old-hash", "USER"));
+        userService.findByEmail(EMAIL);
+
+        userService.invalidateAll();
+        userService.findByEmail(EMAIL);
+
+        verify(userRespository, times(2)).findPrincipalByEmail(EMAIL);
+    }
+
+    private static Optional<UserPrincipal> principal(String password, String role) {
+        return Optional.of(new UserPrincipal(EMAIL, password, role));
+    }
+}
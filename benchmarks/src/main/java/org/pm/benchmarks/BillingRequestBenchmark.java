@@ -0,0 +1,41 @@
+package org.pm.benchmarks;
+
+import billing.BillingRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// The request BillingServiceGrpcClient builds for every created patient, and its wire encoding
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BillingRequestBenchmark {
+
+    private final String patientId = "123e4567-e89b-12d3-a456-426614174000";
+    private final String name = "John Doe";
+    private final String email = "john.doe@example.com";
+
+    @Benchmark
+    public BillingRequest build() {
+        return BillingRequest.newBuilder()
+                .setPatientId(patientId)
+                .setName(name)
+                .setEmail(email).build();
+    }
+
+    @Benchmark
+    public byte[] buildAndSerialize() {
+        return build().toByteArray();
+    }
+}
@@ -0,0 +1,64 @@
+package org.pm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.pm.authservice.utils.JwtUtil;
+
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+// generateToken runs on every login, verifyToken on every request the gateway validates
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtUtilBenchmark {
+
+    // HMAC key of at least 256 bits, base64 encoded like jwt.secret
+    private static final String SECRET = "Ym0tYmVuY2htYXJrLXNlY3JldC1rZXktMzItYnl0ZXMtbG9uZyE=";
+
+    private JwtUtil jwtUtil;
+    private String token;
+    private String legacyToken;
+
+    @Setup
+    public void setUp() {
+        jwtUtil = new JwtUtil(SECRET, "");
+        token = jwtUtil.generateToken("john.doe@example.com", "ADMIN");
+        // Issued before tokens carried a kid
+        legacyToken = Jwts.builder()
+                .subject("john.doe@example.com")
+                .claim("role", "ADMIN")
+                .expiration(new Date(System.currentTimeMillis() + 1000 * 60 * 60))
+                .signWith(Keys.hmacShaKeyFor(Base64.getDecoder().decode(SECRET)))
+                .compact();
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return jwtUtil.generateToken("john.doe@example.com", "ADMIN");
+    }
+
+    @Benchmark
+    public Object verifyToken() {
+        return jwtUtil.verifyToken(token);
+    }
+
+    @Benchmark
+    public Object verifyLegacyToken() {
+        return jwtUtil.verifyToken(legacyToken);
+    }
+}
@@ -0,0 +1,69 @@
+package org.pm.benchmarks;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pm.analyticsservice.aggregation.Hash64;
+import org.pm.analyticsservice.event.PatientEventView;
+import patient.events.PatientEvent;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Encoding happens once per created patient in the outbox, decoding once per record in analytics-service.
+// consumeParsed and consumeView read what the analytics consumer needs from a record, through the generated
+// message and through PatientEventView; run with -prof gc to compare gc.alloc.rate.norm (bytes per record).
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PatientEventBenchmark {
+
+    private byte[] payload;
+    private final PatientEventView view = new PatientEventView();
+
+    @Setup
+    public void setUp() {
+        payload = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return PatientEvent.newBuilder()
+                .setPatientId("123e4567-e89b-12d3-a456-426614174000")
+                .setName("John Doe")
+                .setEmail("john.doe@example.com")
+                .setEventType("PATIENT_CREATED")
+                .build()
+                .toByteArray();
+    }
+
+    @Benchmark
+    public PatientEvent decode() throws InvalidProtocolBufferException {
+        return PatientEvent.parseFrom(payload);
+    }
+
+    @Benchmark
+    public long consumeParsed() throws InvalidProtocolBufferException {
+        PatientEvent event = PatientEvent.parseFrom(payload);
+        String email = event.getEmail();
+        String domain = email.substring(email.lastIndexOf('@') + 1).toLowerCase(Locale.ROOT);
+        return event.getEventType().length() + Hash64.hash(event.getPatientId()) + domain.length();
+    }
+
+    @Benchmark
+    public long consumeView() throws InvalidProtocolBufferException {
+        PatientEventView event = view.wrap(payload);
+        return event.getEventType().length() + event.patientIdHash() + event.emailDomain().length();
+    }
+}
@@ -0,0 +1,66 @@
+package org.pm.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pm.patientservice.dto.PatientRequestDto;
+import org.pm.patientservice.dto.PatientResponseDto;
+import org.pm.patientservice.mapper.PatientMapper;
+import org.pm.patientservice.model.Patient;
+
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Runs on every patient read (toDto) and write (toPatient, which parses both dates)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PatientMapperBenchmark {
+
+    private Patient patient;
+    private PatientRequestDto request;
+
+    @Setup
+    public void setUp() {
+        patient = new Patient();
+        patient.setId(UUID.fromString("123e4567-e89b-12d3-a456-426614174000"));
+        patient.setName("John Doe");
+        patient.setEmail("john.doe@example.com");
+        patient.setAddress("123 Main St, Springfield");
+        patient.setDateOfBirth(LocalDate.of(1985, 6, 15));
+        patient.setRegisteredDate(LocalDate.of(2024, 1, 10));
+
+        request = new PatientRequestDto();
+        request.setName("John Doe");
+        request.setEmail("john.doe@example.com");
+        request.setAddress("123 Main St, Springfield");
+        request.setDateOfBirth("1985-06-15");
+        request.setRegisteredDate("2024-01-10");
+    }
+
+    @Benchmark
+    public PatientResponseDto toDto() {
+        return PatientMapper.toDto(patient);
+    }
+
+    @Benchmark
+    public Patient toPatient() {
+        return PatientMapper.toPatient(request);
+    }
+
+    @Benchmark
+    public LocalDate parseDate() {
+        return LocalDate.parse(request.getDateOfBirth());
+    }
+}
@@ -0,0 +1,169 @@
+package org.pm.benchmarks;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.coyote.http2.Http2Protocol;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.netty.ConnectionObserver;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bursts of concurrent GETs from the gateway's HTTP client (reactor-netty) to an embedded Tomcat configured like
+// the services (server.http2.enabled, keep-alive settings, default thread pool), each request taking
+// serviceTimeMs on the server. The time per burst is the score, the connections secondary result is how many
+// TCP connections the client opened per iteration: the churn and ephemeral ports a setup costs.
+//
+//   elastic     the gateway's former default, a pool without limit or idle eviction
+//   no-pool     a new connection for every request
+//   fixed-64    HTTP/1.1 with at most 64 connections, the rest wait (a route's pool metadata)
+//   h2c-4       HTTP/2 without TLS over at most 4 connections (protocol: h2c)
+//
+//   java -jar target/benchmarks.jar UpstreamConnection -p burst=64,256
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UpstreamConnectionBenchmark {
+
+    private static final byte[] BODY = ("[" + "{\"id\":\"00000000-0000-0000-0000-000000000000\",\"name\":\"Patient\","
+            + "\"email\":\"patient@example.com\",\"address\":\"1 Main Street\",\"dateOfBirth\":\"1990-01-01\"},".repeat(8)
+            + "{}]").getBytes(StandardCharsets.UTF_8);
+
+    @Param({"elastic", "no-pool", "fixed-64", "h2c-4"})
+    public String setup;
+
+    @Param({"256"})
+    public int burst;
+
+    @Param({"2"})
+    public int serviceTimeMs;
+
+    private Tomcat tomcat;
+    private ConnectionProvider connectionProvider;
+    private HttpClient client;
+    private final AtomicLong connectionsOpened = new AtomicLong();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Connections {
+        public long connections;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            connections = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws LifecycleException, IOException {
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(Files.createTempDirectory("tomcat").toString());
+        Connector connector = new Connector();
+        connector.setPort(0);
+        connector.addUpgradeProtocol(new Http2Protocol());
+        connector.setProperty("keepAliveTimeout", "20000");
+        connector.setProperty("maxKeepAliveRequests", "10000");
+        tomcat.setConnector(connector);
+        Context context = tomcat.addContext("", null);
+        Tomcat.addServlet(context, "patients", new PatientsServlet(serviceTimeMs));
+        context.addServletMappingDecoded("/patients", "patients");
+        tomcat.start();
+
+        connectionProvider = switch(setup){
+            case "elastic" -> ConnectionProvider.builder("elastic")
+                    .maxConnections(Integer.MAX_VALUE)
+                    .pendingAcquireTimeout(Duration.ZERO)
+                    .pendingAcquireMaxCount(-1)
+                    .build();
+            case "no-pool" -> ConnectionProvider.newConnection();
+            case "fixed-64" -> ConnectionProvider.builder("fixed-64")
+                    .maxConnections(64)
+                    .pendingAcquireMaxCount(-1)
+                    .maxIdleTime(Duration.ofSeconds(15))
+                    .build();
+            case "h2c-4" -> ConnectionProvider.builder("h2c-4")
+                    .maxConnections(4)
+                    .pendingAcquireMaxCount(-1)
+                    .maxIdleTime(Duration.ofSeconds(15))
+                    .build();
+            default -> throw new IllegalArgumentException(setup);
+        };
+        client = HttpClient.create(connectionProvider)
+                .baseUrl("http://localhost:" + connector.getLocalPort())
+                .protocol(setup.startsWith("h2c") ? HttpProtocol.H2C : HttpProtocol.HTTP11)
+                .observe((connection, state) -> {
+                    if(state == ConnectionObserver.State.CONNECTED){
+                        connectionsOpened.incrementAndGet();
+                    }
+                });
+    }
+
+    @TearDown
+    public void tearDown() throws LifecycleException {
+        connectionProvider.dispose();
+        tomcat.stop();
+        tomcat.destroy();
+    }
+
+    @Benchmark
+    public long burst(Connections connections) {
+        long openedBefore = connectionsOpened.get();
+        Long bytes = Flux.range(0, burst)
+                .flatMap(i -> client.get().uri("/patients").responseSingle((response, body) -> body.asByteArray()), burst)
+                .map(body -> (long) body.length)
+                .reduce(0L, Long::sum)
+                .block();
+        connections.connections += connectionsOpened.get() - openedBefore;
+        return bytes;
+    }
+
+    private static class PatientsServlet extends HttpServlet {
+
+        private final int serviceTimeMs;
+
+        PatientsServlet(int serviceTimeMs) {
+            this.serviceTimeMs = serviceTimeMs;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            try{
+                Thread.sleep(serviceTimeMs);
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            response.setContentType("application/json");
+            response.setContentLength(BODY.length);
+            response.getOutputStream().write(BODY);
+        }
+    }
+}
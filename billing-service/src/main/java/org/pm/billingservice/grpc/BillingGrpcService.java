@@ -2,29 +2,84 @@ package org.pm.billingservice.grpc;
 
 import billing.BillingRequest;
 import billing.BillingResponse;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import net.devh.boot.grpc.server.service.GrpcService;
 import billing.BillingServiceGrpc.BillingServiceImplBase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 @GrpcService
 public class BillingGrpcService extends BillingServiceImplBase {
 
     private static final Logger logger = LoggerFactory.getLogger(BillingGrpcService.class);
+    private static final int REQUEST_WINDOW = 32;
 
     @Override
     public void createBillingAccount(BillingRequest billingRequest, StreamObserver<BillingResponse> responseObserver) {
         logger.info("createBillingAccount request received {}", billingRequest.toString());
 
+        responseObserver.onNext(createAccount(billingRequest));
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<BillingRequest> createBillingAccounts(StreamObserver<BillingResponse> responseObserver) {
+        ServerCallStreamObserver<BillingResponse> serverCallStreamObserver =
+                (ServerCallStreamObserver<BillingResponse>) responseObserver;
+
+        // Manual flow control: keep at most REQUEST_WINDOW requests pulled but not yet answered, and only
+        // pull more while responses can be written, so a client that stops reading responses also stops
+        // us reading its requests
+        serverCallStreamObserver.disableAutoRequest();
+        AtomicInteger outstanding = new AtomicInteger();
+        Runnable topUpWindow = () -> {
+            int missing = REQUEST_WINDOW - outstanding.get();
+            if (serverCallStreamObserver.isReady() && missing > 0) {
+                outstanding.addAndGet(missing);
+                serverCallStreamObserver.request(missing);
+            }
+        };
+        serverCallStreamObserver.setOnReadyHandler(topUpWindow);
+
+        return new StreamObserver<>() {
+            private long accounts;
+
+            @Override
+            public void onNext(BillingRequest billingRequest) {
+                outstanding.decrementAndGet();
+                responseObserver.onNext(createAccount(billingRequest));
+                accounts++;
+
+                // Refill in chunks rather than one request per message. If the transport is not ready
+                // the onReady handler refills once it drains.
+                if (outstanding.get() <= REQUEST_WINDOW / 2) {
+                    topUpWindow.run();
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                logger.warn("createBillingAccounts stream failed after {} accounts: {}", accounts, t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                logger.info("createBillingAccounts stream completed, {} accounts created", accounts);
+                responseObserver.onCompleted();
+            }
+        };
+    }
+
+    private BillingResponse createAccount(BillingRequest billingRequest) {
         //Business logic - e.g save to database , perform calculation etc
 
-        BillingResponse response = BillingResponse.newBuilder()
+        return BillingResponse.newBuilder()
                 .setAccountId("12345")
                 .setStatus("Active")
+                .setPatientId(billingRequest.getPatientId())
                 .build();
-
-        responseObserver.onNext(response);
-        responseObserver.onCompleted();
     }
 }
@@ -0,0 +1,233 @@
+package org.pm.patientservice.bloom;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.pm.patientservice.repository.PatientRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+// Bloom filter over every patient email, used to skip the uniqueness query when an email was never seen.
+//
+// Emails are added before they are written, so a rolled back write only costs a false positive. Deleted
+// or replaced emails cannot be removed and slowly raise the false positive rate, so the filter is rebuilt
+// from the table once its estimated rate drifts past twice the configured one. Until the first seeding
+// finishes every email is reported as possibly present and the query runs as before. The unique
+// constraint on patient.email stays the final check for concurrent writes.
+@Component
+public class EmailBloomFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailBloomFilter.class);
+
+    private final PatientRepository patientRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final long expectedInsertions;
+    private final double falsePositiveProbability;
+    private final long bitCount;
+    private final int hashFunctions;
+
+    private final Counter definitelyAbsent;
+    private final Counter possiblyPresent;
+    // Not synchronized: the rebuild streams the table over JDBC and may run on a virtual thread
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+
+    private volatile Bits current;
+    // Filled alongside current while a rebuild is seeding it
+    private volatile Bits next;
+    private volatile boolean ready;
+
+    public EmailBloomFilter(
+            PatientRepository patientRepository,
+            PlatformTransactionManager transactionManager,
+            @Value("${patient.email-filter.expected-insertions:1000000}") long expectedInsertions,
+            @Value("${patient.email-filter.false-positive-probability:0.01}") double falsePositiveProbability,
+            @Value("${patient.email-filter.max-memory-mb:16}") int maxMemoryMb,
+            MeterRegistry meterRegistry) {
+        if(expectedInsertions < 1 || falsePositiveProbability <= 0 || falsePositiveProbability >= 1 || maxMemoryMb < 1){
+            throw new IllegalArgumentException("patient.email-filter needs expected-insertions >= 1, 0 < false-positive-probability < 1 and max-memory-mb >= 1");
+        }
+        this.patientRepository = patientRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveProbability = falsePositiveProbability;
+
+        // m = -n ln(p) / ln(2)^2 bits and k = m/n ln(2) hash functions, capped by the memory budget
+        double ln2 = Math.log(2);
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability) / (ln2 * ln2));
+        long bits = Math.min(optimalBits, maxMemoryMb * 8L * 1024 * 1024);
+        this.bitCount = Math.max(64, (bits + 63) / 64 * 64);
+        this.hashFunctions = (int) Math.max(1, Math.round((double) bitCount / expectedInsertions * ln2));
+        this.current = new Bits(bitCount);
+
+        if(bits < optimalBits){
+            log.warn("Email filter capped at {} MB, expected false positive rate at {} emails is {} instead of {}",
+                    maxMemoryMb, expectedInsertions, expectedFalsePositiveProbability(), falsePositiveProbability);
+        }
+
+        this.definitelyAbsent = Counter.builder("patient.email.filter.checks")
+                .tag("result", "definitely_absent").register(meterRegistry);
+        this.possiblyPresent = Counter.builder("patient.email.filter.checks")
+                .tag("result", "possibly_present").register(meterRegistry);
+        Gauge.builder("patient.email.filter.memory", this, filter -> filter.bitCount / 8.0)
+                .baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("patient.email.filter.hash.functions", this, filter -> filter.hashFunctions)
+                .register(meterRegistry);
+        Gauge.builder("patient.email.filter.false.positive.target", this, filter -> filter.falsePositiveProbability)
+                .register(meterRegistry);
+        Gauge.builder("patient.email.filter.false.positive.estimate", this, EmailBloomFilter::estimatedFalsePositiveProbability)
+                .register(meterRegistry);
+        Gauge.builder("patient.email.filter.insertions", this, filter -> filter.current.insertions.get())
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void seedOnStartup(){
+        Thread.ofVirtual().name("email-filter-seed").start(this::seed);
+    }
+
+    void seed(){
+        if(rebuild()){
+            ready = true;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${patient.email-filter.rebuild-check-interval-ms:300000}")
+    public void rebuildIfSaturated(){
+        if(ready && estimatedFalsePositiveProbability() > 2 * falsePositiveProbability){
+            log.info("Email filter false positive estimate {} is past twice the target, rebuilding", estimatedFalsePositiveProbability());
+            rebuild();
+        }
+    }
+
+    // false means the email is certainly not stored, true means the database has to be asked
+    public boolean mightContain(String email){
+        boolean result = !ready || email == null || current.mightContain(email, hashFunctions);
+        (result ? possiblyPresent : definitelyAbsent).increment();
+        return result;
+    }
+
+    // Reads next before current: rebuild() publishes current before clearing next, so an email put while the
+    // rebuild swaps filters reaches the new one either way
+    public void put(String email){
+        if(email == null){
+            return;
+        }
+        Bits seeding = next;
+        current.put(email, hashFunctions);
+        if(seeding != null){
+            seeding.put(email, hashFunctions);
+        }
+    }
+
+    // (bits set / bits)^k, based on the bits actually set rather than the number of insertions
+    public double estimatedFalsePositiveProbability(){
+        return Math.pow((double) current.bitsSet.get() / bitCount, hashFunctions);
+    }
+
+    public double expectedFalsePositiveProbability(){
+        return Math.pow(1 - Math.exp(-(double) hashFunctions * expectedInsertions / bitCount), hashFunctions);
+    }
+
+    private boolean rebuild(){
+        rebuildLock.lock();
+        try{
+            long start = System.nanoTime();
+            Bits seeding = new Bits(bitCount);
+            next = seeding;
+            try{
+                transactionTemplate.executeWithoutResult(status -> {
+                    try(Stream<String> emails = patientRepository.streamAllEmails()){
+                        emails.forEach(email -> seeding.put(email, hashFunctions));
+                    }
+                });
+            }catch (RuntimeException e){
+                next = null;
+                log.error("Seeding the email filter failed, uniqueness checks keep querying the database", e);
+                return false;
+            }
+
+            current = seeding;
+            next = null;
+            log.info("Email filter seeded with {} emails in {} ms: {} KB, {} hash functions, estimated false positive rate {}",
+                    seeding.insertions.get(), (System.nanoTime() - start) / 1_000_000, bitCount / 8 / 1024, hashFunctions,
+                    estimatedFalsePositiveProbability());
+            return true;
+        }finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    // Lock-free bit array, positions come from double hashing h1 + i * h2 of one 64 bit hash
+    private static final class Bits {
+        private final AtomicLongArray words;
+        private final long size;
+        private final AtomicLong bitsSet = new AtomicLong();
+        private final AtomicLong insertions = new AtomicLong();
+
+        Bits(long size){
+            this.words = new AtomicLongArray((int) (size / 64));
+            this.size = size;
+        }
+
+        void put(String email, int hashFunctions){
+            long h1 = hash(email);
+            long h2 = mix(h1 ^ 0xC2B2AE3D27D4EB4FL) | 1;
+            for(int i = 0; i < hashFunctions; i++){
+                long bit = Math.floorMod(h1 + i * h2, size);
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long word;
+                do{
+                    word = words.get(index);
+                    if((word & mask) != 0){
+                        break;
+                    }
+                }while(!words.compareAndSet(index, word, word | mask));
+                if((word & mask) == 0){
+                    bitsSet.incrementAndGet();
+                }
+            }
+            insertions.incrementAndGet();
+        }
+
+        boolean mightContain(String email, int hashFunctions){
+            long h1 = hash(email);
+            long h2 = mix(h1 ^ 0xC2B2AE3D27D4EB4FL) | 1;
+            for(int i = 0; i < hashFunctions; i++){
+                long bit = Math.floorMod(h1 + i * h2, size);
+                if((words.get((int) (bit >>> 6)) & (1L << bit)) == 0){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // FNV-1a over the chars, finished with the SplitMix64 mixer so every bit of the result is usable
+        private static long hash(String value){
+            long hash = 0xCBF29CE484222325L;
+            for(int i = 0; i < value.length(); i++){
+                hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+            }
+            return mix(hash);
+        }
+
+        private static long mix(long z){
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.pm.patientservice.config;
+
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+
+@Configuration
+public class EtagConfig {
+
+    // Patient reads get a strong ETag (a hash of the body) and a matching If-None-Match is answered with
+    // an empty 304. The NDJSON stream opts out, it must not be buffered.
+    @Bean
+    public FilterRegistrationBean<ShallowEtagHeaderFilter> patientEtagFilter() {
+        FilterRegistrationBean<ShallowEtagHeaderFilter> registration = new FilterRegistrationBean<>(new ShallowEtagHeaderFilter());
+        registration.addUrlPatterns("/patients", "/patients/*");
+        registration.setName("patientEtagFilter");
+        return registration;
+    }
+}
@@ -1,20 +1,30 @@
 package org.pm.patientservice.controller;
 
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import jakarta.validation.groups.Default;
 import org.apache.commons.lang3.builder.ToStringSummary;
+import org.pm.patientservice.dto.PatientBatchResponseDto;
+import org.pm.patientservice.dto.PatientPageResponseDto;
 import org.pm.patientservice.dto.PatientRequestDto;
 import org.pm.patientservice.dto.PatientResponseDto;
+import org.pm.patientservice.dto.PatientSearchResultDto;
 import org.pm.patientservice.dto.validators.CreatePatientValidationGroup;
 import org.pm.patientservice.service.PatientService;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.UUID;
 
@@ -24,17 +34,52 @@ import java.util.UUID;
 public class PatientController {
 
     private final PatientService patientService;
+    private final ObjectMapper objectMapper;
 
-    public PatientController(PatientService patientService) {
+    public PatientController(PatientService patientService, ObjectMapper objectMapper) {
         this.patientService = patientService;
+        this.objectMapper = objectMapper;
     }
 
 
-    @Operation(summary = "Get patients")
-    @GetMapping
-    public ResponseEntity<List<PatientResponseDto>> getPatients() {
-        List<PatientResponseDto> patients = patientService.getPatients();
-        return ResponseEntity.ok(patients);
+    @Operation(summary = "Get patients, one page at a time ordered by id")
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<PatientPageResponseDto> getPatients(
+            @RequestParam(required = false) UUID after,
+            @RequestParam(defaultValue = "50") int limit) {
+        PatientPageResponseDto page = patientService.getPatients(after, limit);
+        return ResponseEntity.ok(page);
+    }
+
+    @Operation(summary = "Search patients by name or email as you type")
+    @GetMapping("/search")
+    public ResponseEntity<List<PatientSearchResultDto>> searchPatients(
+            @RequestParam("q") String query,
+            @RequestParam(defaultValue = "20") int limit) {
+        List<PatientSearchResultDto> results = patientService.searchPatients(query, limit);
+        return ResponseEntity.ok(results);
+    }
+
+    @Operation(summary = "Get a patient by id")
+    @GetMapping("/{id}")
+    public ResponseEntity<PatientResponseDto> getPatient(@PathVariable UUID id) {
+        PatientResponseDto patient = patientService.getPatient(id);
+        return ResponseEntity.ok(patient);
+    }
+
+    @Operation(summary = "Stream all patients as newline-delimited JSON")
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamPatients(HttpServletRequest request) {
+        ShallowEtagHeaderFilter.disableContentCaching(request);
+        StreamingResponseBody body = outputStream -> patientService.streamPatients(patient -> {
+            try {
+                outputStream.write(objectMapper.writeValueAsBytes(patient));
+                outputStream.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
     @Operation(summary = "Create new patients")
@@ -45,6 +90,14 @@ public class PatientController {
         return ResponseEntity.status(HttpStatus.CREATED).body(savedPatient);
     }
 
+    @Operation(summary = "Create patients in bulk, reporting the outcome of each one")
+    @PostMapping("/batch")
+    public ResponseEntity<PatientBatchResponseDto> createPatients(@RequestBody List<PatientRequestDto> patientRequestDtos) {
+        PatientBatchResponseDto result = patientService.createPatients(patientRequestDtos);
+
+        return ResponseEntity.ok(result);
+    }
+
     @Operation(summary = "Update an existing patents")
     @PutMapping("/{id}")
     public ResponseEntity<PatientResponseDto> updatePatient(@PathVariable UUID id,@Valid @RequestBody PatientRequestDto patientRequestDto) {
@@ -0,0 +1,62 @@
+package org.pm.patientservice.dto;
+
+public class PatientBatchItemResultDto {
+
+    public enum Status {
+        CREATED,
+        // Patient was saved but its billing account could not be provisioned
+        BILLING_FAILED,
+        REJECTED
+    }
+
+    private int index;
+
+    private Status status;
+
+    private PatientResponseDto patient;
+
+    private String error;
+
+    public PatientBatchItemResultDto(int index, Status status, PatientResponseDto patient, String error) {
+        this.index = index;
+        this.status = status;
+        this.patient = patient;
+        this.error = error;
+    }
+
+    public static PatientBatchItemResultDto rejected(int index, String error) {
+        return new PatientBatchItemResultDto(index, Status.REJECTED, null, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public PatientResponseDto getPatient() {
+        return patient;
+    }
+
+    public void setPatient(PatientResponseDto patient) {
+        this.patient = patient;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,44 @@
+package org.pm.patientservice.dto;
+
+import java.util.List;
+
+public class PatientBatchResponseDto {
+
+    private int created;
+
+    private int failed;
+
+    private List<PatientBatchItemResultDto> results;
+
+    public PatientBatchResponseDto(List<PatientBatchItemResultDto> results) {
+        this.results = results;
+        this.created = (int) results.stream()
+                .filter(result -> result.getStatus() != PatientBatchItemResultDto.Status.REJECTED)
+                .count();
+        this.failed = results.size() - created;
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    public void setCreated(int created) {
+        this.created = created;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public List<PatientBatchItemResultDto> getResults() {
+        return results;
+    }
+
+    public void setResults(List<PatientBatchItemResultDto> results) {
+        this.results = results;
+    }
+}
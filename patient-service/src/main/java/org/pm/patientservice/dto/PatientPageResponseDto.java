@@ -0,0 +1,32 @@
+package org.pm.patientservice.dto;
+
+import java.util.List;
+
+public class PatientPageResponseDto {
+
+    private List<PatientResponseDto> patients;
+
+    // Id of the last patient in this page, null when there are no more pages
+    private String nextCursor;
+
+    public PatientPageResponseDto(List<PatientResponseDto> patients, String nextCursor) {
+        this.patients = patients;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<PatientResponseDto> getPatients() {
+        return patients;
+    }
+
+    public void setPatients(List<PatientResponseDto> patients) {
+        this.patients = patients;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+}
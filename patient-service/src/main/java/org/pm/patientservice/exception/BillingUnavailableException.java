@@ -0,0 +1,11 @@
+package org.pm.patientservice.exception;
+
+public class BillingUnavailableException extends RuntimeException {
+    public BillingUnavailableException(String message) {
+        super(message);
+    }
+
+    public BillingUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -4,28 +4,88 @@ package org.pm.patientservice.grpc;
 import billing.BillingRequest;
 import billing.BillingResponse;
 import billing.BillingServiceGrpc;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Deadline;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.pm.patientservice.exception.BillingUnavailableException;
+import org.pm.patientservice.model.Patient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
 @Service
 public class BillingServiceGrpcClient {
     private static final Logger logger = LoggerFactory.getLogger(BillingServiceGrpcClient.class);
     private final BillingServiceGrpc.BillingServiceBlockingStub billingServiceBlockingStub;
+    private final BillingServiceGrpc.BillingServiceFutureStub billingServiceFutureStub;
+    private final BillingServiceGrpc.BillingServiceStub billingServiceStub;
+    private final long deadlineMs;
+    private final long streamDeadlineMs;
+    private final CallBulkhead bulkhead;
+    private final Timer callTimer;
+    private final Counter timeoutCounter;
     public BillingServiceGrpcClient(
             @Value("${billing.service.address:localhost}") String serverAddress,
-            @Value("${billing.service.grpc.port:9001}") int serverPort
+            @Value("${billing.service.grpc.port:9001}") int serverPort,
+            @Value("${billing.service.grpc.deadline-ms:2000}") long deadlineMs,
+            @Value("${billing.service.grpc.max-concurrent-calls:64}") int maxConcurrentCalls,
+            @Value("${billing.service.grpc.max-queued-calls:256}") int maxQueuedCalls,
+            @Value("${billing.service.grpc.stream-deadline-ms:300000}") long streamDeadlineMs,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+            MeterRegistry meterRegistry
 
     ) {
         logger.info("Connecting to billing service at {}:{}", serverAddress, serverPort);
 
-        ManagedChannel channel = ManagedChannelBuilder.forAddress(serverAddress, serverPort).usePlaintext().build();
+        ManagedChannelBuilder<?> channelBuilder = ManagedChannelBuilder.forAddress(serverAddress, serverPort).usePlaintext();
+        if(virtualThreads){
+            // Response listeners and future completions run here instead of on gRPC's cached platform pool
+            channelBuilder.executor(Executors.newVirtualThreadPerTaskExecutor());
+        }
+        ManagedChannel channel = channelBuilder.build();
 
         billingServiceBlockingStub = billing.BillingServiceGrpc.newBlockingStub(channel);
+        billingServiceFutureStub = billing.BillingServiceGrpc.newFutureStub(channel);
+        billingServiceStub = billing.BillingServiceGrpc.newStub(channel);
+        this.deadlineMs = deadlineMs;
+        this.streamDeadlineMs = streamDeadlineMs;
+        this.bulkhead = new CallBulkhead(maxConcurrentCalls, maxQueuedCalls);
 
+        Gauge.builder("billing.grpc.bulkhead.queue.depth", bulkhead, CallBulkhead::queueDepth)
+                .description("Billing calls waiting for a bulkhead permit")
+                .register(meterRegistry);
+        Gauge.builder("billing.grpc.bulkhead.in.flight", bulkhead, CallBulkhead::inFlight)
+                .description("Billing calls currently in flight")
+                .register(meterRegistry);
+        this.callTimer = Timer.builder("billing.grpc.calls")
+                .description("Latency of billing calls, including time queued in the bulkhead")
+                .register(meterRegistry);
+        this.timeoutCounter = Counter.builder("billing.grpc.calls.timeouts")
+                .description("Billing calls that exceeded their deadline")
+                .register(meterRegistry);
     }
 
 
@@ -35,9 +95,138 @@ public class BillingServiceGrpcClient {
                 .setName(name)
                 .setEmail(email).build();
 
-        BillingResponse response = billingServiceBlockingStub.createBillingAccount(request);
+        try{
+            BillingResponse response = billingServiceBlockingStub
+                    .withDeadlineAfter(deadlineMs, TimeUnit.MILLISECONDS)
+                    .createBillingAccount(request);
+
+            logger.info("Received response from billing service via GRPC: {}", response);
+            return response;
+        }catch (StatusRuntimeException e){
+            throw translate(e);
+        }
+    }
+
+    // Non-blocking variant: the call is admitted through the bulkhead and its deadline starts at
+    // submission, so time spent queued counts against it.
+    public CompletableFuture<BillingResponse> createBillingAccountAsync(String patientId, String name, String email){
+        BillingRequest request = BillingRequest.newBuilder()
+                .setPatientId(patientId)
+                .setName(name)
+                .setEmail(email).build();
+
+        Deadline deadline = Deadline.after(deadlineMs, TimeUnit.MILLISECONDS);
+        Timer.Sample sample = Timer.start();
+
+        return bulkhead.submit(() -> toCompletableFuture(
+                        billingServiceFutureStub.withDeadline(deadline).createBillingAccount(request)))
+                .whenComplete((response, error) -> {
+                    sample.stop(callTimer);
+                    if(error == null){
+                        logger.info("Received response from billing service via GRPC: {}", response);
+                    }
+                })
+                .exceptionallyCompose(error -> CompletableFuture.failedFuture(translate(unwrap(error))));
+    }
+
+    // Streams the requests over a single createBillingAccounts call. Requests are only written while the
+    // transport is ready, so a large import or backfill runs at the rate billing-service can absorb without
+    // buffering the whole iterator in memory. onResponse is called from a gRPC thread for each account.
+    public CompletableFuture<Void> createBillingAccounts(Iterator<BillingRequest> requests, Consumer<BillingResponse> onResponse){
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+
+        billingServiceStub.withDeadlineAfter(streamDeadlineMs, TimeUnit.MILLISECONDS)
+                .createBillingAccounts(new ClientResponseObserver<BillingRequest, BillingResponse>() {
+                    private boolean halfClosed;
+
+                    @Override
+                    public void beforeStart(ClientCallStreamObserver<BillingRequest> requestStream) {
+                        requestStream.setOnReadyHandler(() -> {
+                            try{
+                                while(requestStream.isReady() && !halfClosed){
+                                    if(requests.hasNext()){
+                                        requestStream.onNext(requests.next());
+                                    }else{
+                                        halfClosed = true;
+                                        requestStream.onCompleted();
+                                    }
+                                }
+                            }catch (RuntimeException e){
+                                halfClosed = true;
+                                requestStream.onError(e);
+                                completion.completeExceptionally(e);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onNext(BillingResponse response) {
+                        onResponse.accept(response);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        completion.completeExceptionally(translate(t));
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        completion.complete(null);
+                    }
+                });
+
+        return completion;
+    }
+
+    // Returns the responses keyed by patient id; patients whose account was not created are absent from the map.
+    public Map<String, BillingResponse> createBillingAccounts(List<Patient> patients){
+        Map<String, BillingResponse> responses = new ConcurrentHashMap<>();
+        Iterator<BillingRequest> requests = patients.stream()
+                .map(patient -> BillingRequest.newBuilder()
+                        .setPatientId(patient.getId().toString())
+                        .setName(patient.getName())
+                        .setEmail(patient.getEmail()).build())
+                .iterator();
+
+        try{
+            createBillingAccounts(requests, response -> responses.put(response.getPatientId(), response)).join();
+        }catch (CompletionException e){
+            logger.warn("Billing account stream failed after {} of {} accounts: {}", responses.size(), patients.size(), e.getCause().getMessage());
+        }
+
+        logger.info("Created {} of {} billing accounts via GRPC", responses.size(), patients.size());
+        return responses;
+    }
+
+    private RuntimeException translate(Throwable error){
+        Status.Code code = Status.fromThrowable(error).getCode();
+        if(code == Status.Code.DEADLINE_EXCEEDED){
+            timeoutCounter.increment();
+            return new BillingUnavailableException("Billing service did not respond within " + deadlineMs + "ms", error);
+        }
+        if(code == Status.Code.UNAVAILABLE){
+            return new BillingUnavailableException("Billing service is unavailable", error);
+        }
+        return error instanceof RuntimeException runtimeException ? runtimeException : new CompletionException(error);
+    }
+
+    private static Throwable unwrap(Throwable error){
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static <T> CompletableFuture<T> toCompletableFuture(ListenableFuture<T> listenableFuture){
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Futures.addCallback(listenableFuture, new FutureCallback<>() {
+            @Override
+            public void onSuccess(T result) {
+                future.complete(result);
+            }
 
-        logger.info("Received response from billing service via GRPC: {}", response);
-        return response;
+            @Override
+            public void onFailure(Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
     }
 }
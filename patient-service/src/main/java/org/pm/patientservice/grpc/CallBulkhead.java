@@ -0,0 +1,84 @@
+package org.pm.patientservice.grpc;
+
+import org.pm.patientservice.exception.BillingUnavailableException;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Caps the number of outstanding calls without blocking the caller: calls over the limit wait in a
+// bounded queue and are started by whichever call completes next, calls over the queue bound fail fast.
+class CallBulkhead {
+
+    private final int maxConcurrentCalls;
+    private final int maxQueuedCalls;
+    private final Semaphore permits;
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    CallBulkhead(int maxConcurrentCalls, int maxQueuedCalls) {
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxQueuedCalls = maxQueuedCalls;
+        this.permits = new Semaphore(maxConcurrentCalls);
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<T> started;
+            try {
+                started = call.get();
+            } catch (RuntimeException e) {
+                started = CompletableFuture.failedFuture(e);
+            }
+            started.whenComplete((value, error) -> {
+                permits.release();
+                drain();
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+
+        if (permits.tryAcquire()) {
+            start.run();
+            return result;
+        }
+
+        if (queued.incrementAndGet() > maxQueuedCalls) {
+            queued.decrementAndGet();
+            result.completeExceptionally(new BillingUnavailableException(
+                    "Billing service is saturated, " + maxConcurrentCalls + " calls in flight and " + maxQueuedCalls + " queued"));
+            return result;
+        }
+        waiting.add(start);
+        // A permit may have been released between the failed tryAcquire and the add
+        drain();
+        return result;
+    }
+
+    private void drain() {
+        while (!waiting.isEmpty() && permits.tryAcquire()) {
+            Runnable next = waiting.poll();
+            if (next == null) {
+                permits.release();
+                return;
+            }
+            queued.decrementAndGet();
+            next.run();
+        }
+    }
+
+    int queueDepth() {
+        return queued.get();
+    }
+
+    int inFlight() {
+        return maxConcurrentCalls - permits.availablePermits();
+    }
+}
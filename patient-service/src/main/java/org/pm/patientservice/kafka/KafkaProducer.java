@@ -1,38 +1,69 @@
 package org.pm.patientservice.kafka;
 
-import org.pm.patientservice.model.Patient;
+import org.pm.patientservice.model.OutboxEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Service;
-import patient.events.PatientEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 @Service
 public class KafkaProducer {
 
+    public static final String TOPIC = "patient";
+
     private static final Logger log = LoggerFactory.getLogger(KafkaProducer.class);
     private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final long sendTimeoutMs;
 
-    public KafkaProducer(KafkaTemplate<String, byte[]> kafkaTemplate) {
+    public KafkaProducer(
+            KafkaTemplate<String, byte[]> kafkaTemplate,
+            @Value("${patient.outbox.send-timeout-ms:10000}") long sendTimeoutMs) {
         this.kafkaTemplate = kafkaTemplate;
+        this.sendTimeoutMs = sendTimeoutMs;
     }
 
-    public void sendEvent(Patient patient){
-        PatientEvent event = PatientEvent.newBuilder()
-                .setPatientId(patient.getId().toString())
-                .setName(patient.getName())
-                .setEmail(patient.getEmail())
-                .setEventType("PATIENT_CREATED")
-                .build();
-
-        try{
-            kafkaTemplate.send("patient", event.toByteArray());
-        }catch(Exception e){
-            log.error("Error sending Patient created event: {}", event);
+    // Hands the whole batch to the producer before waiting, so the sends are batched on the wire,
+    // then returns the events the broker acknowledged. Keyed by patient id to keep per-patient order.
+    public List<OutboxEvent> publish(List<OutboxEvent> events){
+        List<CompletableFuture<SendResult<String, byte[]>>> sends = new ArrayList<>(events.size());
+        for(OutboxEvent event : events){
+            try{
+                sends.add(kafkaTemplate.send(TOPIC, event.getAggregateId(), event.getPayload()));
+            }catch(Exception e){
+                // send() only throws when the producer cannot take the record at all (e.g. no metadata
+                // within max.block.ms), so do not block again for each remaining event
+                log.error("Error sending {} event for patient {}: {}", event.getEventType(), event.getAggregateId(), e.getMessage());
+                break;
+            }
         }
-    }
-
 
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+        List<OutboxEvent> delivered = new ArrayList<>(events.size());
+        for(int i = 0; i < sends.size(); i++){
+            OutboxEvent event = events.get(i);
+            try{
+                sends.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                delivered.add(event);
+            }catch (ExecutionException e){
+                log.error("Error sending {} event for patient {}: {}", event.getEventType(), event.getAggregateId(), e.getCause().getMessage());
+            }catch (TimeoutException e){
+                log.error("Timed out sending {} event for patient {}", event.getEventType(), event.getAggregateId());
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return delivered;
+    }
 
 }
@@ -0,0 +1,62 @@
+package org.pm.patientservice.kafka;
+
+import org.pm.patientservice.model.OutboxEvent;
+import org.pm.patientservice.repository.OutboxEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+// Drains the outbox to the patient topic. A row is only deleted once Kafka acknowledged it,
+// so delivery is at-least-once: a crash between the ack and the commit resends the batch.
+@Component
+public class OutboxRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final KafkaProducer kafkaProducer;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    public OutboxRelay(
+            OutboxEventRepository outboxEventRepository,
+            KafkaProducer kafkaProducer,
+            PlatformTransactionManager transactionManager,
+            @Value("${patient.outbox.batch-size:500}") int batchSize) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.kafkaProducer = kafkaProducer;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${patient.outbox.flush-interval-ms:200}")
+    public void relay(){
+        // Keep draining while full batches go out, a partial batch or a failure waits for the next tick
+        boolean moreWaiting = true;
+        while(moreWaiting){
+            moreWaiting = Boolean.TRUE.equals(transactionTemplate.execute(status -> relayBatch()));
+        }
+    }
+
+    private boolean relayBatch(){
+        List<OutboxEvent> batch = outboxEventRepository.findAllByOrderByIdAsc(Limit.of(batchSize));
+        if(batch.isEmpty()){
+            return false;
+        }
+
+        List<OutboxEvent> delivered = kafkaProducer.publish(batch);
+        outboxEventRepository.deleteAllInBatch(delivered);
+
+        if(delivered.size() < batch.size()){
+            log.warn("Relayed {} of {} outbox events, the rest will be retried", delivered.size(), batch.size());
+        }
+        return delivered.size() == batchSize;
+    }
+}
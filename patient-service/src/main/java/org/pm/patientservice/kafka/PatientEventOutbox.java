@@ -0,0 +1,52 @@
+package org.pm.patientservice.kafka;
+
+import org.pm.patientservice.model.OutboxEvent;
+import org.pm.patientservice.model.Patient;
+import org.pm.patientservice.repository.OutboxEventRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import patient.events.PatientEvent;
+
+import java.time.Instant;
+import java.util.List;
+
+// Records patient events in the outbox table. Must join the transaction that writes the patient,
+// OutboxRelay publishes the rows to Kafka once that transaction has committed.
+@Service
+public class PatientEventOutbox {
+
+    public static final String PATIENT_CREATED = "PATIENT_CREATED";
+
+    private final OutboxEventRepository outboxEventRepository;
+
+    public PatientEventOutbox(OutboxEventRepository outboxEventRepository) {
+        this.outboxEventRepository = outboxEventRepository;
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void patientCreated(Patient patient){
+        outboxEventRepository.save(toOutboxEvent(patient, PATIENT_CREATED));
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void patientsCreated(List<Patient> patients){
+        outboxEventRepository.saveAll(patients.stream().map(patient -> toOutboxEvent(patient, PATIENT_CREATED)).toList());
+    }
+
+    private static OutboxEvent toOutboxEvent(Patient patient, String eventType){
+        PatientEvent event = PatientEvent.newBuilder()
+                .setPatientId(patient.getId().toString())
+                .setName(patient.getName())
+                .setEmail(patient.getEmail())
+                .setEventType(eventType)
+                .build();
+
+        OutboxEvent outboxEvent = new OutboxEvent();
+        outboxEvent.setAggregateId(event.getPatientId());
+        outboxEvent.setEventType(eventType);
+        outboxEvent.setPayload(event.toByteArray());
+        outboxEvent.setCreatedAt(Instant.now());
+        return outboxEvent;
+    }
+}
@@ -1,11 +1,20 @@
 package org.pm.patientservice.repository;
 
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.AvailableHints;
 import org.pm.patientservice.model.Patient;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 public interface PatientRepository extends JpaRepository<Patient, UUID> {
@@ -13,4 +22,24 @@ public interface PatientRepository extends JpaRepository<Patient, UUID> {
     boolean existsByEmail(String email);
 
     boolean existsByEmailAndIdNot(String email,UUID id);
+
+    @Query("select p.email from Patient p where p.email in :emails")
+    Set<String> findExistingEmails(Collection<String> emails);
+
+    // Keyset pagination: the id is the sort key and the cursor, so every page is an index range scan
+    List<Patient> findAllByOrderByIdAsc(Limit limit);
+
+    List<Patient> findByIdGreaterThanOrderByIdAsc(UUID id, Limit limit);
+
+    // Must be consumed inside a transaction so the JDBC cursor stays open while rows are fetched
+    @QueryHints({
+            @QueryHint(name = AvailableHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = AvailableHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select p from Patient p order by p.id")
+    Stream<Patient> streamAllByOrderByIdAsc();
+
+    @QueryHints(@QueryHint(name = AvailableHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select p.email from Patient p")
+    Stream<String> streamAllEmails();
 }
@@ -0,0 +1,452 @@
+package org.pm.patientservice.search;
+
+import jakarta.persistence.EntityManager;
+import org.pm.patientservice.dto.PatientSearchResultDto;
+import org.pm.patientservice.exception.SearchIndexUnavailableException;
+import org.pm.patientservice.model.Patient;
+import org.pm.patientservice.repository.PatientRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+// In-memory type-ahead index over patient name and email.
+//
+// Every patient gets an int document id. Posting lists map a key to the ascending ids of the documents
+// containing it: each trigram of the lower-cased name and email, and the first one and two characters of
+// each of their tokens (so one and two character queries still work). A query walks the shortest posting
+// list of its keys, binary-searches the others, verifies and scores every survivor against the stored
+// lower-cased text and keeps the best-ranked ones in a bounded heap.
+//
+// Updates never rewrite posting lists: a changed patient is tombstoned and re-added under a new id, and
+// compact() rebuilds the lists once enough tombstones have piled up.
+@Component
+public class PatientSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(PatientSearchIndex.class);
+
+    public static final int MAX_RESULTS = 100;
+    private static final int BUILD_BATCH_SIZE = 1_000;
+    private static final int MIN_TOMBSTONES_TO_COMPACT = 10_000;
+    private static final char PREFIX_KEY = '^';
+
+    private final PatientRepository patientRepository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean building = new AtomicBoolean();
+
+    // Guarded by lock
+    private Map<String, Postings> postings = new HashMap<>();
+    private Map<UUID, Integer> documents = new HashMap<>();
+    private UUID[] patientIds = new UUID[1024];
+    private String[] names = new String[1024];
+    private String[] emails = new String[1024];
+    // Lower-cased name and email, what queries are matched and scored against
+    private String[] searchNames = new String[1024];
+    private String[] searchEmails = new String[1024];
+    private BitSet tombstones = new BitSet();
+    private int documentCount;
+    private int tombstoneCount;
+    // Patients deleted while the initial build is streaming the table, so a stale row is not re-added
+    private Set<UUID> deletedDuringBuild;
+
+    private volatile boolean ready;
+    private volatile boolean buildFailed;
+
+    public PatientSearchIndex(
+            PatientRepository patientRepository,
+            EntityManager entityManager,
+            PlatformTransactionManager transactionManager) {
+        this.patientRepository = patientRepository;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup(){
+        startBuild();
+    }
+
+    // Search stays unavailable until a build succeeds, so a failed one (e.g. the database was not up yet) is retried
+    @Scheduled(fixedDelayString = "${patient.search.build-retry-interval-ms:30000}")
+    public void retryFailedBuild(){
+        if(buildFailed){
+            startBuild();
+        }
+    }
+
+    private void startBuild(){
+        if(!building.compareAndSet(false, true)){
+            return;
+        }
+        Thread.ofVirtual().name("patient-search-index-build").start(() -> {
+            try{
+                build();
+            }finally {
+                building.set(false);
+            }
+        });
+    }
+
+    void build(){
+        long start = System.nanoTime();
+        withWriteLock(() -> deletedDuringBuild = new HashSet<>());
+
+        try{
+            transactionTemplate.executeWithoutResult(status -> {
+                try(Stream<Patient> patients = patientRepository.streamAllByOrderByIdAsc()){
+                    List<Patient> batch = new ArrayList<>(BUILD_BATCH_SIZE);
+                    Iterator<Patient> iterator = patients.iterator();
+                    while(iterator.hasNext()){
+                        batch.add(iterator.next());
+                        if(batch.size() == BUILD_BATCH_SIZE || !iterator.hasNext()){
+                            withWriteLock(() -> batch.forEach(this::addIfAbsent));
+                            batch.clear();
+                            entityManager.clear();
+                        }
+                    }
+                }
+            });
+        }catch (RuntimeException e){
+            buildFailed = true;
+            log.error("Building the patient search index failed, search stays unavailable until a retry succeeds", e);
+            return;
+        }
+
+        int indexed;
+        lock.writeLock().lock();
+        try{
+            deletedDuringBuild = null;
+            indexed = documents.size();
+        }finally {
+            lock.writeLock().unlock();
+        }
+        buildFailed = false;
+        ready = true;
+        log.info("Patient search index built with {} patients in {} ms",
+                indexed, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Adds or replaces the patient once the surrounding transaction (if any) commits
+    public void index(Patient patient){
+        UUID id = patient.getId();
+        String name = patient.getName();
+        String email = patient.getEmail();
+        afterCommit(() -> withWriteLock(() -> {
+            Integer previous = documents.get(id);
+            if(previous != null){
+                tombstone(previous);
+            }
+            add(id, name, email);
+        }));
+    }
+
+    public void remove(UUID patientId){
+        afterCommit(() -> withWriteLock(() -> {
+            if(deletedDuringBuild != null){
+                deletedDuringBuild.add(patientId);
+            }
+            Integer previous = documents.remove(patientId);
+            if(previous != null){
+                tombstone(previous);
+            }
+        }));
+    }
+
+    public List<PatientSearchResultDto> search(String query, int limit){
+        if(!ready){
+            throw new SearchIndexUnavailableException("Patient search index is still being built");
+        }
+
+        String[] terms = normalize(query).split("\\s+");
+        terms = Arrays.stream(terms).filter(term -> !term.isEmpty()).distinct().toArray(String[]::new);
+        if(terms.length == 0){
+            return List.of();
+        }
+        int maxResults = Math.clamp(limit, 1, MAX_RESULTS);
+
+        lock.readLock().lock();
+        try{
+            List<Postings> lists = new ArrayList<>();
+            for(String term : terms){
+                for(String key : queryKeys(term)){
+                    Postings list = postings.get(key);
+                    if(list == null){
+                        return List.of();
+                    }
+                    lists.add(list);
+                }
+            }
+            lists.sort(Comparator.comparingInt(list -> list.size));
+
+            // Min-heap on rank so the worst of the current top results is evicted first
+            PriorityQueue<Hit> top = new PriorityQueue<>(maxResults + 1, Hit.BY_RANK);
+            // Every candidate is scored, a cut-off in document order would never rank newer patients
+            Postings shortest = lists.getFirst();
+            for(int i = 0; i < shortest.size; i++){
+                int document = shortest.documents[i];
+                if(tombstones.get(document) || !containsAll(lists, document)){
+                    continue;
+                }
+                int score = score(document, terms);
+                if(score == 0 || (top.size() == maxResults && score < top.peek().score())){
+                    continue;
+                }
+                Hit hit = new Hit(document, score, names[document].length());
+                if(top.size() < maxResults){
+                    top.add(hit);
+                }else if(Hit.BY_RANK.compare(hit, top.peek()) > 0){
+                    top.poll();
+                    top.add(hit);
+                }
+            }
+
+            List<PatientSearchResultDto> results = new ArrayList<>(top.size());
+            while(!top.isEmpty()){
+                int document = top.poll().document();
+                results.add(new PatientSearchResultDto(patientIds[document].toString(), names[document], emails[document]));
+            }
+            return results.reversed();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${patient.search.compaction-interval-ms:60000}")
+    public void compact(){
+        lock.readLock().lock();
+        try{
+            if(!compactionDue()){
+                return;
+            }
+        }finally {
+            lock.readLock().unlock();
+        }
+
+        int compacted;
+        lock.writeLock().lock();
+        try{
+            if(!compactionDue()){
+                return;
+            }
+            UUID[] oldIds = patientIds;
+            String[] oldNames = names;
+            String[] oldEmails = emails;
+            BitSet oldTombstones = tombstones;
+            int oldCount = documentCount;
+
+            postings = new HashMap<>();
+            documents = new HashMap<>();
+            patientIds = new UUID[Math.max(1024, oldCount - tombstoneCount)];
+            names = new String[patientIds.length];
+            emails = new String[patientIds.length];
+            searchNames = new String[patientIds.length];
+            searchEmails = new String[patientIds.length];
+            tombstones = new BitSet();
+            documentCount = 0;
+            tombstoneCount = 0;
+
+            for(int document = 0; document < oldCount; document++){
+                if(!oldTombstones.get(document)){
+                    add(oldIds[document], oldNames[document], oldEmails[document]);
+                }
+            }
+            compacted = documentCount;
+        }finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Compacted patient search index to {} patients", compacted);
+    }
+
+    // Guarded by lock
+    private boolean compactionDue(){
+        return tombstoneCount >= MIN_TOMBSTONES_TO_COMPACT && tombstoneCount >= documentCount / 4;
+    }
+
+    private void addIfAbsent(Patient patient){
+        if(!documents.containsKey(patient.getId()) && !deletedDuringBuild.contains(patient.getId())){
+            add(patient.getId(), patient.getName(), patient.getEmail());
+        }
+    }
+
+    private void add(UUID patientId, String name, String email){
+        if(documentCount == patientIds.length){
+            int capacity = patientIds.length * 2;
+            patientIds = Arrays.copyOf(patientIds, capacity);
+            names = Arrays.copyOf(names, capacity);
+            emails = Arrays.copyOf(emails, capacity);
+            searchNames = Arrays.copyOf(searchNames, capacity);
+            searchEmails = Arrays.copyOf(searchEmails, capacity);
+        }
+        int document = documentCount++;
+        patientIds[document] = patientId;
+        names[document] = name;
+        emails[document] = email;
+        searchNames[document] = normalize(name);
+        searchEmails[document] = normalize(email);
+        documents.put(patientId, document);
+
+        addKeys(document, searchNames[document]);
+        addKeys(document, searchEmails[document]);
+    }
+
+    private void addKeys(int document, String text){
+        for(int i = 0; i + 3 <= text.length(); i++){
+            postings.computeIfAbsent(text.substring(i, i + 3), key -> new Postings()).add(document);
+        }
+        for(int i = 0; i < text.length(); i++){
+            if(isTokenStart(text, i)){
+                postings.computeIfAbsent(PREFIX_KEY + text.substring(i, i + 1), key -> new Postings()).add(document);
+                if(i + 1 < text.length() && Character.isLetterOrDigit(text.charAt(i + 1))){
+                    postings.computeIfAbsent(PREFIX_KEY + text.substring(i, i + 2), key -> new Postings()).add(document);
+                }
+            }
+        }
+    }
+
+    private static List<String> queryKeys(String term){
+        if(term.length() < 3){
+            return List.of(PREFIX_KEY + term);
+        }
+        List<String> keys = new ArrayList<>(term.length() - 2);
+        for(int i = 0; i + 3 <= term.length(); i++){
+            keys.add(term.substring(i, i + 3));
+        }
+        return keys;
+    }
+
+    private static boolean containsAll(List<Postings> lists, int document){
+        for(int i = 1; i < lists.size(); i++){
+            if(!lists.get(i).contains(document)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 0 means the candidate does not actually match every term (trigrams only narrow the candidates down)
+    private int score(int document, String[] terms){
+        String name = searchNames[document];
+        String email = searchEmails[document];
+        int total = 0;
+        for(String term : terms){
+            int score;
+            if(hasToken(name, term, true)){
+                score = 100;
+            }else if(hasToken(name, term, false)){
+                score = 60;
+            }else if(email.startsWith(term)){
+                score = 50;
+            }else if(hasToken(email, term, false)){
+                score = 40;
+            }else if(term.length() >= 3 && (name.contains(term) || email.contains(term))){
+                score = 10;
+            }else{
+                return 0;
+            }
+            total += score;
+        }
+        return total;
+    }
+
+    private static boolean hasToken(String text, String term, boolean wholeToken){
+        for(int i = 0; i + term.length() <= text.length(); i++){
+            if(isTokenStart(text, i) && text.startsWith(term, i)){
+                int end = i + term.length();
+                if(!wholeToken || end == text.length() || !Character.isLetterOrDigit(text.charAt(end))){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTokenStart(String text, int i){
+        return Character.isLetterOrDigit(text.charAt(i)) && (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)));
+    }
+
+    private static String normalize(String text){
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private void tombstone(int document){
+        if(!tombstones.get(document)){
+            tombstones.set(document);
+            tombstoneCount++;
+        }
+    }
+
+    private void withWriteLock(Runnable action){
+        lock.writeLock().lock();
+        try{
+            action.run();
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void afterCommit(Runnable action){
+        if(TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        }else{
+            action.run();
+        }
+    }
+
+    private record Hit(int document, int score, int nameLength) {
+        // Higher score ranks first, then shorter names (closer matches), then older patients
+        static final Comparator<Hit> BY_RANK = Comparator.comparingInt(Hit::score)
+                .thenComparing(Comparator.comparingInt(Hit::nameLength).reversed())
+                .thenComparing(Comparator.comparingInt(Hit::document).reversed());
+    }
+
+    // Growable, ascending int list of document ids
+    private static final class Postings {
+        private int[] documents = new int[4];
+        private int size;
+
+        void add(int document){
+            if(size > 0 && documents[size - 1] == document){
+                return;
+            }
+            if(size == documents.length){
+                documents = Arrays.copyOf(documents, size * 2);
+            }
+            documents[size++] = document;
+        }
+
+        boolean contains(int document){
+            return Arrays.binarySearch(documents, 0, size, document) >= 0;
+        }
+    }
+}
@@ -1,80 +1,308 @@
 package org.pm.patientservice.service;
 
+import billing.BillingResponse;
+import jakarta.persistence.EntityManager;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import jakarta.validation.groups.Default;
+import org.pm.patientservice.bloom.EmailBloomFilter;
+import org.pm.patientservice.dto.PatientBatchItemResultDto;
+import org.pm.patientservice.dto.PatientBatchResponseDto;
+import org.pm.patientservice.dto.PatientPageResponseDto;
 import org.pm.patientservice.dto.PatientRequestDto;
 import org.pm.patientservice.dto.PatientResponseDto;
+import org.pm.patientservice.dto.PatientSearchResultDto;
+import org.pm.patientservice.dto.validators.CreatePatientValidationGroup;
+import org.pm.patientservice.exception.BatchSizeExceededException;
 import org.pm.patientservice.exception.EmailAlreadyExistsException;
 import org.pm.patientservice.exception.PatientNotFoundException;
 import org.pm.patientservice.grpc.BillingServiceGrpcClient;
-import org.pm.patientservice.kafka.KafkaProducer;
+import org.pm.patientservice.kafka.PatientEventOutbox;
 import org.pm.patientservice.mapper.PatientMapper;
 import org.pm.patientservice.model.Patient;
 import org.pm.patientservice.repository.PatientRepository;
+import org.pm.patientservice.search.PatientSearchIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class PatientService {
 
+    private static final Logger log = LoggerFactory.getLogger(PatientService.class);
+
+    public static final String PATIENT_CACHE = "patients";
+    public static final int MAX_PAGE_SIZE = 500;
+    public static final int MAX_BATCH_SIZE = 1000;
+
     private final PatientRepository patientRepository;
     private final BillingServiceGrpcClient billingServiceGrpcClient;
-    private final KafkaProducer kafkaProducer;
+    private final PatientEventOutbox patientEventOutbox;
+    private final PatientSearchIndex patientSearchIndex;
+    private final EmailBloomFilter emailBloomFilter;
+    private final EntityManager entityManager;
+    private final Validator validator;
+    private final TransactionTemplate transactionTemplate;
 
     public PatientService(
             PatientRepository patientRepository,
             BillingServiceGrpcClient billingServiceGrpcClient,
-            KafkaProducer kafkaProducer) {
+            PatientEventOutbox patientEventOutbox,
+            PatientSearchIndex patientSearchIndex,
+            EmailBloomFilter emailBloomFilter,
+            EntityManager entityManager,
+            Validator validator,
+            PlatformTransactionManager transactionManager) {
         this.patientRepository = patientRepository;
         this.billingServiceGrpcClient = billingServiceGrpcClient;
-        this.kafkaProducer = kafkaProducer;
+        this.patientEventOutbox = patientEventOutbox;
+        this.patientSearchIndex = patientSearchIndex;
+        this.emailBloomFilter = emailBloomFilter;
+        this.entityManager = entityManager;
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public PatientPageResponseDto getPatients(UUID after, int limit){
+        Limit pageSize = Limit.of(Math.clamp(limit, 1, MAX_PAGE_SIZE));
+        List<Patient> patients = after == null
+                ? patientRepository.findAllByOrderByIdAsc(pageSize)
+                : patientRepository.findByIdGreaterThanOrderByIdAsc(after, pageSize);
+
+        String nextCursor = patients.size() < pageSize.max() ? null : patients.getLast().getId().toString();
+        return new PatientPageResponseDto(patients.stream().map(PatientMapper::toDto).toList(), nextCursor);
     }
 
-    public List<PatientResponseDto> getPatients(){
-        List<Patient> patients = patientRepository.findAll();
-        return patients.stream().map(PatientMapper::toDto).toList();
+    // Bounded by spring.cache.caffeine.spec, entries are evicted on update and delete
+    @Cacheable(cacheNames = PATIENT_CACHE, key = "#id")
+    public PatientResponseDto getPatient(UUID id){
+        Patient patient = patientRepository.findById(id).orElseThrow(
+                ()-> new PatientNotFoundException("Patient not found with ID: "+ id));
+        return PatientMapper.toDto(patient);
+    }
 
+    // Served from the in-memory index, no database round trip
+    public List<PatientSearchResultDto> searchPatients(String query, int limit){
+        return patientSearchIndex.search(query, limit);
+    }
+
+    @Transactional(readOnly = true)
+    public void streamPatients(Consumer<PatientResponseDto> consumer){
+        try(Stream<Patient> patients = patientRepository.streamAllByOrderByIdAsc()){
+            patients.forEach(patient -> {
+                consumer.accept(PatientMapper.toDto(patient));
+                // Detach as we go so the persistence context does not grow with the table
+                entityManager.detach(patient);
+            });
+        }
     }
 
     public PatientResponseDto createPatient(PatientRequestDto patientRequestDto){
 
-        if(patientRepository.existsByEmail(patientRequestDto.getEmail())){
+        // The filter answers most checks without a query, the unique constraint catches concurrent duplicates at flush
+        if(emailBloomFilter.mightContain(patientRequestDto.getEmail())
+                && patientRepository.existsByEmail(patientRequestDto.getEmail())){
             throw new EmailAlreadyExistsException("A patient with this email is already exists "+ patientRequestDto.getEmail());
         }
-        Patient newPatient = patientRepository.save(
-                PatientMapper.toPatient(patientRequestDto)
-        );
+        emailBloomFilter.put(patientRequestDto.getEmail());
 
-        billingServiceGrpcClient.createBillingAccount(
+        Patient newPatient;
+        try{
+            newPatient = transactionTemplate.execute(status -> {
+                Patient savedPatient = patientRepository.save(PatientMapper.toPatient(patientRequestDto));
+                patientEventOutbox.patientCreated(savedPatient);
+                patientRepository.flush();
+                return savedPatient;
+            });
+        }catch (DataIntegrityViolationException e){
+            throw new EmailAlreadyExistsException("A patient with this email is already exists "+ patientRequestDto.getEmail());
+        }
+        patientSearchIndex.index(newPatient);
+
+        // Only provision billing once the patient is committed: a rolled back insert leaves no account behind,
+        // and waiting for the call holds no transaction or connection. A billing failure leaves the patient in place.
+        CompletableFuture<BillingResponse> billingAccount = billingServiceGrpcClient.createBillingAccountAsync(
                 newPatient.getId().toString(),
                 newPatient.getName(),
                 newPatient.getEmail()
         );
-
-        kafkaProducer.sendEvent(newPatient);
+        try{
+            billingAccount.join();
+        }catch (CompletionException e){
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
 
         return PatientMapper.toDto(newPatient);
     }
 
+    public PatientBatchResponseDto createPatients(List<PatientRequestDto> patientRequestDtos){
+        if(patientRequestDtos.size() > MAX_BATCH_SIZE){
+            throw new BatchSizeExceededException("A batch can contain at most " + MAX_BATCH_SIZE + " patients, got " + patientRequestDtos.size());
+        }
+
+        PatientBatchItemResultDto[] results = new PatientBatchItemResultDto[patientRequestDtos.size()];
+        Map<Integer, Patient> accepted = new LinkedHashMap<>();
+        Set<String> batchEmails = new HashSet<>();
+
+        for(int i = 0; i < patientRequestDtos.size(); i++){
+            PatientRequestDto patientRequestDto = patientRequestDtos.get(i);
+            if(patientRequestDto == null){
+                results[i] = PatientBatchItemResultDto.rejected(i, "Patient is required");
+                continue;
+            }
+
+            Set<ConstraintViolation<PatientRequestDto>> violations =
+                    validator.validate(patientRequestDto, Default.class, CreatePatientValidationGroup.class);
+            if(!violations.isEmpty()){
+                String error = violations.stream()
+                        .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                        .sorted()
+                        .collect(Collectors.joining(", "));
+                results[i] = PatientBatchItemResultDto.rejected(i, error);
+                continue;
+            }
+
+            if(!batchEmails.add(patientRequestDto.getEmail())){
+                results[i] = PatientBatchItemResultDto.rejected(i, "Email appears more than once in this batch "+ patientRequestDto.getEmail());
+                continue;
+            }
+
+            try{
+                accepted.put(i, PatientMapper.toPatient(patientRequestDto));
+            }catch (DateTimeParseException e){
+                results[i] = PatientBatchItemResultDto.rejected(i, "Dates must use the yyyy-MM-dd format");
+            }
+        }
+
+        if(!accepted.isEmpty()){
+            // One query for the whole batch instead of an existsByEmail per patient, limited to the emails the filter has seen
+            List<String> possiblyExisting = accepted.values().stream()
+                    .map(Patient::getEmail)
+                    .filter(emailBloomFilter::mightContain)
+                    .toList();
+            Set<String> existingEmails = possiblyExisting.isEmpty()
+                    ? Set.of()
+                    : patientRepository.findExistingEmails(possiblyExisting);
+            accepted.entrySet().removeIf(entry -> {
+                String email = entry.getValue().getEmail();
+                if(existingEmails.contains(email)){
+                    results[entry.getKey()] = PatientBatchItemResultDto.rejected(entry.getKey(), "A patient with this email is already exists "+ email);
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        accepted.values().forEach(patient -> emailBloomFilter.put(patient.getEmail()));
+        List<Patient> savedPatients = saveBatch(accepted, results);
+        savedPatients.forEach(patientSearchIndex::index);
+
+        Map<String, BillingResponse> billingResponses = savedPatients.isEmpty()
+                ? Map.of()
+                : billingServiceGrpcClient.createBillingAccounts(savedPatients);
+
+        accepted.forEach((index, patient) -> {
+            if(results[index] != null){
+                return;
+            }
+            boolean billed = billingResponses.containsKey(patient.getId().toString());
+            results[index] = new PatientBatchItemResultDto(
+                    index,
+                    billed ? PatientBatchItemResultDto.Status.CREATED : PatientBatchItemResultDto.Status.BILLING_FAILED,
+                    PatientMapper.toDto(patient),
+                    billed ? null : "Billing account could not be created");
+        });
+
+        return new PatientBatchResponseDto(Arrays.asList(results));
+    }
+
+    // The patients and their outbox events are written in one transaction and Hibernate groups the
+    // inserts into JDBC batches. If another request inserted one of the emails in the meantime the whole
+    // transaction rolls back, so fall back to one transaction per patient and only reject the conflicting rows.
+    private List<Patient> saveBatch(Map<Integer, Patient> accepted, PatientBatchItemResultDto[] results){
+        if(accepted.isEmpty()){
+            return List.of();
+        }
+
+        try{
+            return transactionTemplate.execute(status -> {
+                List<Patient> savedPatients = patientRepository.saveAll(accepted.values());
+                patientEventOutbox.patientsCreated(savedPatients);
+                return savedPatients;
+            });
+        }catch (DataIntegrityViolationException e){
+            log.warn("Batch insert of {} patients failed, retrying one by one: {}", accepted.size(), e.getMessage());
+        }
+
+        List<Patient> savedPatients = new ArrayList<>(accepted.size());
+        accepted.forEach((index, patient) -> {
+            // The id generated for the rolled back insert must not be reused
+            patient.setId(null);
+            try{
+                savedPatients.add(transactionTemplate.execute(status -> {
+                    Patient savedPatient = patientRepository.save(patient);
+                    patientEventOutbox.patientCreated(savedPatient);
+                    return savedPatient;
+                }));
+            }catch (DataIntegrityViolationException e){
+                results[index] = PatientBatchItemResultDto.rejected(index, "A patient with this email is already exists "+ patient.getEmail());
+            }
+        });
+        return savedPatients;
+    }
+
+    @CacheEvict(cacheNames = PATIENT_CACHE, key = "#id")
     public PatientResponseDto updatePatient(UUID id, PatientRequestDto patientRequestDto){
          Patient patient = patientRepository.findById(id).orElseThrow(
                  ()-> new PatientNotFoundException("Patient not found with ID: "+ id));
 
-        if(patientRepository.existsByEmailAndIdNot(patientRequestDto.getEmail(), id)){
+        if(emailBloomFilter.mightContain(patientRequestDto.getEmail())
+                && patientRepository.existsByEmailAndIdNot(patientRequestDto.getEmail(), id)){
             throw new EmailAlreadyExistsException("A patient with this email is already exists "+ patientRequestDto.getEmail());
         }
+        emailBloomFilter.put(patientRequestDto.getEmail());
 
         patient.setName(patientRequestDto.getName());
         patient.setEmail(patientRequestDto.getEmail());
         patient.setAddress(patientRequestDto.getAddress());
         patient.setDateOfBirth(LocalDate.parse(patientRequestDto.getDateOfBirth()));
 
-        Patient updatedPatient = patientRepository.save(patient);
+        Patient updatedPatient;
+        try{
+            updatedPatient = patientRepository.save(patient);
+        }catch (DataIntegrityViolationException e){
+            throw new EmailAlreadyExistsException("A patient with this email is already exists "+ patientRequestDto.getEmail());
+        }
+        patientSearchIndex.index(updatedPatient);
         return PatientMapper.toDto(updatedPatient);
     }
 
+    @CacheEvict(cacheNames = PATIENT_CACHE, key = "#id")
     public void deletePatient(UUID id){
         patientRepository.deleteById(id);
+        patientSearchIndex.remove(id);
     }
 }
@@ -0,0 +1,202 @@
+package org.pm.patientservice;
+
+import billing.BillingRequest;
+import billing.BillingResponse;
+import billing.BillingServiceGrpc;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Compares platform-thread and virtual-thread request handling under the same mixed load: writers creating
+// patients alongside readers fetching a cached patient. Each create commits the patient and then waits on a
+// billing server that answers after BILLING_DELAY_MS, so the wait ties up the request thread but no pooled
+// connection. Logs throughput and p99 per operation and mode.
+//
+// Slow, so only runs on request:
+// mvn test -Dtest=ThreadingModeComparisonTest -Dthreading.comparison=true
+@EnabledIfSystemProperty(named = "threading.comparison", matches = "true")
+class ThreadingModeComparisonTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ThreadingModeComparisonTest.class);
+
+    private static final long BILLING_DELAY_MS = 50;
+    private static final int WRITERS = 100;
+    private static final int READERS = 20;
+    private static final long WARMUP_MS = 3_000;
+    private static final long MEASURE_MS = 10_000;
+    private static final String PATIENT_ID = "123e4567-e89b-12d3-a456-426614174000";
+
+    private final AtomicLong emails = new AtomicLong();
+
+    private static Server billingServer;
+    private static ScheduledExecutorService billingDelays;
+
+    @BeforeAll
+    static void startBillingServer() throws Exception {
+        billingDelays = Executors.newSingleThreadScheduledExecutor();
+        billingServer = ServerBuilder.forPort(0).addService(new BillingServiceGrpc.BillingServiceImplBase() {
+            @Override
+            public void createBillingAccount(BillingRequest request, StreamObserver<BillingResponse> responseObserver) {
+                billingDelays.schedule(() -> {
+                    responseObserver.onNext(BillingResponse.newBuilder()
+                            .setAccountId("account-" + request.getPatientId())
+                            .setPatientId(request.getPatientId())
+                            .setStatus("ACTIVE")
+                            .build());
+                    responseObserver.onCompleted();
+                }, BILLING_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }).build().start();
+    }
+
+    @AfterAll
+    static void stopBillingServer() {
+        billingServer.shutdownNow();
+        billingDelays.shutdownNow();
+    }
+
+    @Test
+    void compareThreadingModes() throws Exception {
+        Result platform = run(false);
+        Result virtual = run(true);
+
+        StringBuilder table = new StringBuilder("%n%-10s %-7s %10s %10s %10s".formatted("mode", "op", "req/s", "p99 ms", "errors"));
+        for(Result result : List.of(platform, virtual)){
+            table.append("%n%-10s %-7s %10.0f %10.1f %10d".formatted(result.mode, "create",
+                    result.creates.throughput(), result.creates.p99Millis(), result.creates.errors));
+            table.append("%n%-10s %-7s %10.0f %10.1f %10d".formatted(result.mode, "read",
+                    result.reads.throughput(), result.reads.p99Millis(), result.reads.errors));
+        }
+        log.info("Threading mode comparison:{}", table);
+
+        assertTrue(platform.creates.latencies.length > 0 && platform.reads.latencies.length > 0);
+        assertTrue(virtual.creates.latencies.length > 0 && virtual.reads.latencies.length > 0);
+    }
+
+    private Result run(boolean virtualThreads) throws Exception {
+        String mode = virtualThreads ? "virtual" : "platform";
+        // Command line arguments, so they take precedence over application.properties
+        try(ConfigurableApplicationContext context = new SpringApplicationBuilder(PatientServiceApplication.class).run(
+                        "--server.port=0",
+                        "--spring.threads.virtual.enabled=" + virtualThreads,
+                        "--billing.service.grpc.port=" + billingServer.getPort(),
+                        "--grpc.server.port=-1",
+                        "--spring.jpa.hibernate.ddl-auto=create-drop",
+                        "--spring.jpa.defer-datasource-initialization=true",
+                        "--spring.kafka.producer.properties.max.block.ms=100",
+                        "--patient.outbox.flush-interval-ms=60000",
+                        "--logging.level.org.pm=warn",
+                        "--logging.level.org.pm.patientservice.ThreadingModeComparisonTest=info",
+                        "--logging.level.org.apache.kafka=error");
+             HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(Executors.newVirtualThreadPerTaskExecutor()).build()) {
+            String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/patients";
+
+            load(client, baseUrl, mode, WARMUP_MS);
+            Load measured = load(client, baseUrl, mode, MEASURE_MS);
+            return new Result(mode, measured.creates, measured.reads);
+        }
+    }
+
+    private Load load(HttpClient client, String baseUrl, String mode, long durationMs) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        List<Worker> writers = new ArrayList<>();
+        List<Worker> readers = new ArrayList<>();
+
+        try(ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()){
+            for(int i = 0; i < WRITERS; i++){
+                Worker writer = new Worker(() -> HttpRequest.newBuilder(URI.create(baseUrl))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("""
+                                {"name":"Load Test","email":"%s-%d@example.com","address":"1 Test Street",\
+                                "dateOfBirth":"1990-01-01","registeredDate":"2024-01-01"}"""
+                                .formatted(mode, emails.incrementAndGet())))
+                        .build(), 201);
+                writers.add(writer);
+                workers.submit(() -> writer.run(client, end));
+            }
+            for(int i = 0; i < READERS; i++){
+                Worker reader = new Worker(() -> HttpRequest.newBuilder(URI.create(baseUrl + "/" + PATIENT_ID)).GET().build(), 200);
+                readers.add(reader);
+                workers.submit(() -> reader.run(client, end));
+            }
+        }
+        return new Load(Stats.of(writers, durationMs), Stats.of(readers, durationMs));
+    }
+
+    private interface RequestFactory {
+        HttpRequest create();
+    }
+
+    private static final class Worker {
+        private final RequestFactory requests;
+        private final int expectedStatus;
+        private final List<Long> latencies = new ArrayList<>();
+        private long errors;
+
+        Worker(RequestFactory requests, int expectedStatus) {
+            this.requests = requests;
+            this.expectedStatus = expectedStatus;
+        }
+
+        void run(HttpClient client, long end) {
+            while(System.nanoTime() < end){
+                long start = System.nanoTime();
+                try{
+                    HttpResponse<Void> response = client.send(requests.create(), HttpResponse.BodyHandlers.discarding());
+                    if(response.statusCode() == expectedStatus){
+                        latencies.add(System.nanoTime() - start);
+                    }else{
+                        errors++;
+                    }
+                }catch (Exception e){
+                    errors++;
+                }
+            }
+        }
+    }
+
+    private record Stats(long[] latencies, long errors, long durationMs) {
+        static Stats of(List<Worker> workers, long durationMs) {
+            long[] latencies = workers.stream().flatMap(worker -> worker.latencies.stream()).mapToLong(Long::longValue).toArray();
+            Arrays.sort(latencies);
+            return new Stats(latencies, workers.stream().mapToLong(worker -> worker.errors).sum(), durationMs);
+        }
+
+        double throughput() {
+            return latencies.length * 1000.0 / durationMs;
+        }
+
+        double p99Millis() {
+            return latencies.length == 0 ? 0 : latencies[(int) Math.ceil(latencies.length * 0.99) - 1] / 1_000_000.0;
+        }
+    }
+
+    private record Load(Stats creates, Stats reads) {
+    }
+
+    private record Result(String mode, Stats creates, Stats reads) {
+    }
+}
@@ -0,0 +1,103 @@
+package org.pm.patientservice.bloom;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pm.patientservice.repository.PatientRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EmailBloomFilterTest {
+
+    private PatientRepository patientRepository;
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        patientRepository = mock(PatientRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void sizesBitsAndHashFunctionsForTheTargetRate() {
+        EmailBloomFilter filter = filter(1_000_000, 0.01, 16);
+
+        // m = -n ln(p) / ln(2)^2 = 9,585,059 bits, rounded up to whole words; k = m/n ln(2) = 6.64
+        assertEquals(9_585_088 / 8.0, gauge("patient.email.filter.memory"));
+        assertEquals(7, gauge("patient.email.filter.hash.functions"));
+        assertEquals(0.01, filter.expectedFalsePositiveProbability(), 0.0005);
+    }
+
+    @Test
+    void capsTheSizeAtTheMemoryBudget() {
+        EmailBloomFilter filter = filter(100_000_000, 0.01, 1);
+
+        assertEquals(1024 * 1024, gauge("patient.email.filter.memory"));
+        // 8,388,608 bits for 100M emails leaves a single hash function and a saturated filter
+        assertEquals(1, gauge("patient.email.filter.hash.functions"));
+        assertEquals(1 - Math.exp(-100_000_000.0 / 8_388_608), filter.expectedFalsePositiveProbability(), 1e-9);
+    }
+
+    @Test
+    void reportsEverythingAsPossiblyPresentUntilSeeded() {
+        EmailBloomFilter filter = filter(1_000, 0.01, 16);
+
+        assertTrue(filter.mightContain("never.seen@example.com"));
+    }
+
+    @Test
+    void hasNoFalseNegativesAndMeetsTheTargetRate() {
+        int n = 100_000;
+        when(patientRepository.streamAllEmails()).thenReturn(emails("stored", n));
+        EmailBloomFilter filter = filter(n, 0.01, 16);
+        filter.seed();
+
+        assertTrue(emails("stored", n).allMatch(filter::mightContain));
+        long falsePositives = emails("absent", n).filter(filter::mightContain).count();
+        double rate = (double) falsePositives / n;
+        assertTrue(rate > 0.007 && rate < 0.013, "false positive rate " + rate);
+        // The bit-count estimate tracks the measured rate
+        assertEquals(rate, filter.estimatedFalsePositiveProbability(), 0.002);
+    }
+
+    @Test
+    void rebuildDropsRemovedEmailsAndKeepsOnesAddedWhileSeeding() {
+        int n = 10_000;
+        when(patientRepository.streamAllEmails()).thenReturn(emails("stored", 3 * n));
+        EmailBloomFilter filter = filter(n, 0.01, 16);
+        filter.seed();
+        assertTrue(filter.estimatedFalsePositiveProbability() > 0.02);
+
+        // Only kept@ is still stored, added@ is put by a request while the table is being streamed
+        when(patientRepository.streamAllEmails()).thenReturn(Stream.of("kept@example.com")
+                .peek(email -> filter.put("added@example.com")));
+        filter.rebuildIfSaturated();
+
+        assertTrue(filter.estimatedFalsePositiveProbability() < 1e-6);
+        assertTrue(filter.mightContain("kept@example.com"));
+        assertTrue(filter.mightContain("added@example.com"));
+        assertFalse(filter.mightContain("stored-1@example.com"));
+    }
+
+    private EmailBloomFilter filter(long expectedInsertions, double falsePositiveProbability, int maxMemoryMb) {
+        return new EmailBloomFilter(patientRepository, mock(PlatformTransactionManager.class),
+                expectedInsertions, falsePositiveProbability, maxMemoryMb, meterRegistry);
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).gauge().value();
+    }
+
+    private static Stream<String> emails(String prefix, int count) {
+        return IntStream.range(0, count).mapToObj(i -> prefix + "-" + i + "@example.com");
+    }
+}
@@ -0,0 +1,189 @@
+package org.pm.patientservice.search;
+
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pm.patientservice.dto.PatientSearchResultDto;
+import org.pm.patientservice.exception.SearchIndexUnavailableException;
+import org.pm.patientservice.model.Patient;
+import org.pm.patientservice.repository.PatientRepository;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PatientSearchIndexTest {
+
+    private PatientRepository patientRepository;
+    private PatientSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        patientRepository = mock(PatientRepository.class);
+        index = new PatientSearchIndex(patientRepository, mock(EntityManager.class), mock(PlatformTransactionManager.class));
+    }
+
+    @Test
+    void buildIndexesExistingPatients() {
+        Patient jane = patient("Jane Smith", "jane.smith@example.com");
+        when(patientRepository.streamAllByOrderByIdAsc()).thenReturn(Stream.of(jane));
+        index.build();
+
+        assertEquals(List.of(jane.getId().toString()), ids(index.search("smith", 10)));
+    }
+
+    @Test
+    void searchIsUnavailableUntilABuildSucceeds() throws InterruptedException {
+        when(patientRepository.streamAllByOrderByIdAsc())
+                .thenThrow(new DataAccessResourceFailureException("database down"))
+                .thenReturn(Stream.empty());
+        index.build();
+        assertThrows(SearchIndexUnavailableException.class, () -> index.search("jane", 10));
+
+        index.retryFailedBuild();
+        for(int i = 0; i < 100 && !isReady(); i++){
+            Thread.sleep(50);
+        }
+        assertEquals(List.of(), index.search("jane", 10));
+    }
+
+    @Test
+    void findsByNameEmailAndShortPrefixes() {
+        build();
+        Patient jane = index(patient("Jane Smith", "jsmith@example.com"));
+        index(patient("John Doe", "john.doe@example.com"));
+
+        assertEquals(List.of(jane.getId().toString()), ids(index.search("SMI", 10)));
+        assertEquals(List.of(jane.getId().toString()), ids(index.search("jsmith", 10)));
+        assertEquals(List.of(jane.getId().toString()), ids(index.search("ja", 10)));
+        assertEquals(2, index.search("j", 10).size());
+        // Every term has to match
+        assertEquals(List.of(), index.search("jane doe", 10));
+        assertEquals(List.of(), index.search("xyz", 10));
+    }
+
+    @Test
+    void updateReplacesTheIndexedText() {
+        build();
+        Patient patient = index(patient("Jane Smith", "jane@example.com"));
+        patient.setName("Jane Brown");
+        index.index(patient);
+
+        assertEquals(List.of(), index.search("smith", 10));
+        List<PatientSearchResultDto> results = index.search("brown", 10);
+        assertEquals(1, results.size());
+        assertEquals("Jane Brown", results.getFirst().getName());
+        assertEquals(1, index.search("jane", 10).size());
+    }
+
+    @Test
+    void deleteRemovesThePatient() {
+        build();
+        Patient jane = index(patient("Jane Smith", "jane@example.com"));
+        Patient joan = index(patient("Joan Smith", "joan@example.com"));
+        index.remove(jane.getId());
+
+        assertEquals(List.of(joan.getId().toString()), ids(index.search("smith", 10)));
+    }
+
+    @Test
+    void compactionKeepsOnlyLivePatients() {
+        build();
+        List<Patient> patients = new ArrayList<>();
+        for(int i = 0; i < 10_000; i++){
+            String number = "%05d".formatted(i);
+            patients.add(index(patient("Patient Number" + number, "patient" + number + "@example.com")));
+        }
+        // One tombstone per patient, half of all documents
+        for(Patient patient : patients){
+            patient.setName(patient.getName().replace("Number", "Renamed"));
+            index.index(patient);
+        }
+        index.remove(patients.getFirst().getId());
+
+        index.compact();
+
+        assertEquals(List.of(), index.search("number00042", 10));
+        assertEquals(List.of(patients.get(42).getId().toString()), ids(index.search("renamed00042", 10)));
+        assertEquals(List.of(), index.search("renamed00000", 10));
+        assertEquals(PatientSearchIndex.MAX_RESULTS, index.search("patient", 1_000).size());
+        // Updates after compaction still replace the compacted document
+        Patient patient = patients.get(7);
+        patient.setName("Someone Else");
+        index.index(patient);
+        assertEquals(List.of(), index.search("renamed00007", 10));
+        assertEquals(List.of(patient.getId().toString()), ids(index.search("someone", 10)));
+    }
+
+    @Test
+    void ranksWholeNameTokensThenPrefixesThenEmail() {
+        build();
+        Patient email = index(patient("Alice Jones", "ann.jones@example.com"));
+        Patient prefix = index(patient("Annabel Lee", "lee@example.com"));
+        Patient exact = index(patient("Ann Taylor", "taylor@example.com"));
+        Patient substring = index(patient("Joanna Ward", "ward@example.com"));
+
+        assertEquals(List.of(exact.getId().toString(), prefix.getId().toString(),
+                email.getId().toString(), substring.getId().toString()), ids(index.search("ann", 10)));
+        assertEquals(List.of(exact.getId().toString(), prefix.getId().toString()), ids(index.search("ann", 2)));
+    }
+
+    @Test
+    void ranksShorterNamesFirstOnEqualScores() {
+        build();
+        Patient longer = index(patient("Sam Worthington", "sw@example.com"));
+        Patient shorter = index(patient("Sam Lee", "sl@example.com"));
+
+        assertEquals(List.of(shorter.getId().toString(), longer.getId().toString()), ids(index.search("sam", 10)));
+    }
+
+    @Test
+    void ranksAllMatchesNotOnlyTheOldest() {
+        build();
+        for(int i = 0; i < 5_000; i++){
+            index(patient("Patient " + i, "mariana" + i + "@example.com"));
+        }
+        Patient newest = index(patient("Maria Lopez", "lopez@example.com"));
+
+        assertEquals(newest.getId().toString(), index.search("maria", 10).getFirst().getId());
+    }
+
+    private void build() {
+        when(patientRepository.streamAllByOrderByIdAsc()).thenReturn(Stream.empty());
+        index.build();
+    }
+
+    private boolean isReady() {
+        try{
+            index.search("x", 1);
+            return true;
+        }catch (SearchIndexUnavailableException e){
+            return false;
+        }
+    }
+
+    private Patient index(Patient patient) {
+        index.index(patient);
+        return patient;
+    }
+
+    private static Patient patient(String name, String email) {
+        Patient patient = new Patient();
+        patient.setId(UUID.randomUUID());
+        patient.setName(name);
+        patient.setEmail(email);
+        return patient;
+    }
+
+    private static List<String> ids(List<PatientSearchResultDto> results) {
+        return results.stream().map(PatientSearchResultDto::getId).toList();
+    }
+}